@@ -19,6 +19,21 @@ java {
     sourceCompatibility = JavaVersion.VERSION_24
 }
 
+// Enables the SIMD fast path of the lexer (falls back to scalar if missing).
+val vectorModule = listOf("--add-modules", "jdk.incubator.vector")
+
+// javac warns on every compilation that an incubator module is in use, which
+// is intended here. That warning has no lint category of its own, but is
+// omitted once lint is configured with -Xlint:none, after which javac's
+// default categories are enabled again (except preview, which only applies
+// with --enable-preview).
+val defaultLint = listOf("-Xlint:none", "-Xlint:dep-ann,strictfp,requires-transitive-automatic,opens,module,removal")
+
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(vectorModule + defaultLint)
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs(vectorModule)
 }
@@ -46,7 +46,7 @@ public final class Main {
     }
 
     private static void parser(String input) throws LexException, ParseException {
-        var tokens = new Lexer(input).lex();
+        var tokens = new Lexer(input).lexBuffer();
         var ast = new Parser(tokens).parse("source"); //edit for manual testing
         System.out.println(prettify(ast.toString()));
     }
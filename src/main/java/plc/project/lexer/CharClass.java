@@ -0,0 +1,115 @@
+package plc.project.lexer;
+
+/**
+ * A precomputed character class, replacing the single-character regex
+ * patterns previously used by the lexer. Membership for ASCII characters is
+ * stored as a 128-bit table (two {@code long}s), so testing a character is a
+ * shift and a mask with no allocation. Characters outside of ASCII are either
+ * all included or all excluded, which is sufficient for every class in our
+ * grammar (only negated classes, such as string bodies, contain them).
+ *
+ * <p>Classes of a few explicitly listed characters (or their negation) also
+ * keep that list, allowing {@link VectorScanner} to test many characters at
+ * once by comparing against each listed character.
+ */
+final class CharClass {
+
+    static final CharClass WHITESPACE = of(" \b\n\r\t");
+    static final CharClass NON_WHITESPACE = WHITESPACE.negate();
+    static final CharClass IDENTIFIER_START = range('A', 'Z').or(range('a', 'z')).or(of("_"));
+    static final CharClass IDENTIFIER_PART = IDENTIFIER_START.or(range('0', '9')).or(of("-"));
+    static final CharClass DIGIT = range('0', '9');
+    static final CharClass SIGN = of("+-");
+    static final CharClass DECIMAL_POINT = of(".");
+    static final CharClass EXPONENT = of("e");
+    static final CharClass SLASH = of("/");
+    static final CharClass SINGLE_QUOTE = of("'");
+    static final CharClass DOUBLE_QUOTE = of("\"");
+    static final CharClass BACKSLASH = of("\\");
+    static final CharClass EQUALS = of("=");
+    static final CharClass ESCAPE = of("bnrt'\"\\");
+    static final CharClass LINE_BREAK = of("\n\r");
+    static final CharClass CARRIAGE_RETURN = of("\r");
+    static final CharClass NEWLINE = of("\n");
+    static final CharClass COMMENT_BODY = LINE_BREAK.negate();
+    static final CharClass CHARACTER_BODY = of("'\n\r\\").negate();
+    static final CharClass STRING_BODY = of("\"\n\r\\").negate();
+    static final CharClass COMPOUND_OPERATOR = of("<>!=.+");
+    static final CharClass OPERATOR = IDENTIFIER_START.or(DIGIT).or(of("'\" \b\n\r\t")).negate();
+
+    private static final int MAX_LISTED = 8;
+
+    private final long low;
+    private final long high;
+    private final boolean nonAscii;
+    private final char[] listed;
+
+    private CharClass(long low, long high, boolean nonAscii, char[] listed) {
+        this.low = low;
+        this.high = high;
+        this.nonAscii = nonAscii;
+        this.listed = listed;
+    }
+
+    /**
+     * Returns the class containing exactly the (ASCII) characters of chars.
+     */
+    static CharClass of(String chars) {
+        long low = 0, high = 0;
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c >= 128) {
+                throw new IllegalArgumentException("Non-ASCII character in class: " + c);
+            } else if (c < 64) {
+                low |= 1L << c;
+            } else {
+                high |= 1L << (c - 64);
+            }
+        }
+        return new CharClass(low, high, false, chars.length() <= MAX_LISTED ? chars.toCharArray() : null);
+    }
+
+    /**
+     * Returns the class containing the (ASCII) characters from first to last,
+     * inclusive.
+     */
+    static CharClass range(char first, char last) {
+        var builder = new StringBuilder();
+        for (char c = first; c <= last; c++) {
+            builder.append(c);
+        }
+        return of(builder.toString());
+    }
+
+    CharClass or(CharClass other) {
+        return new CharClass(low | other.low, high | other.high, nonAscii || other.nonAscii, null);
+    }
+
+    CharClass negate() {
+        return new CharClass(~low, ~high, !nonAscii, listed);
+    }
+
+    /**
+     * Returns the listed characters, which are exactly the members of this
+     * class (or, if {@link #isNegated()}, exactly the non-members), or null
+     * if this class is not defined by a short list of characters.
+     */
+    char[] listed() {
+        return listed;
+    }
+
+    boolean isNegated() {
+        return nonAscii;
+    }
+
+    boolean contains(char c) {
+        if (c < 64) {
+            return (low & (1L << c)) != 0;
+        } else if (c < 128) {
+            return (high & (1L << (c - 64))) != 0;
+        } else {
+            return nonAscii;
+        }
+    }
+
+}
@@ -0,0 +1,711 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A helper class for maintaining the state of the character stream (input)
+ * and methods for building up token literals.
+ *
+ * <p>The lexer itself only depends on {@link #peek}, {@link #match},
+ * {@link #emit} and {@link #skip}; subclasses define how characters are
+ * stored. {@link Buffered} holds characters in a {@code char[]},
+ * {@link Mapped} scans the bytes of a (memory-mapped) UTF-8 file in place,
+ * and {@link Spliced} holds an edited input as pieces of other inputs.
+ */
+abstract sealed class CharStream permits CharStream.Buffered, CharStream.Mapped, CharStream.Spliced {
+
+    int index = 0;
+    int length = 0;
+
+    /**
+     * Returns true if there is a character at (index + offset).
+     */
+    abstract boolean has(int offset);
+
+    /**
+     * Returns the character at (index + offset), which must be present.
+     */
+    abstract char charAt(int offset);
+
+    /**
+     * Returns the character at the absolute index, which must be present
+     * (i.e. not yet discarded for streamed input).
+     */
+    abstract char at(int index);
+
+    /**
+     * Returns the number of input units (chars or bytes) making up the
+     * character at index. A supplementary code point is a single character
+     * in either encoding (a surrogate pair or a 4-byte UTF-8 sequence), so
+     * both lex the same tokens.
+     */
+    abstract int width();
+
+    /**
+     * Returns true if the character at index is a supplementary code point,
+     * which does not fit in a single {@code char}.
+     */
+    abstract boolean isSupplementary();
+
+    /**
+     * Returns the literal for the input units in [start, end).
+     */
+    abstract String literal(int start, int end);
+
+    /**
+     * Returns a read-only view of the characters for the input units in
+     * [start, end), copying only if they are not stored as chars.
+     */
+    abstract CharSequence view(int start, int end);
+
+    /**
+     * Appends the characters for the input units in [start, end).
+     */
+    abstract void appendTo(StringBuilder builder, int start, int end);
+
+    /**
+     * Returns true if the input units in [start, end) are equal to the given
+     * literal, without creating a String. Only valid for inputs which are
+     * still entirely available (i.e. not streamed).
+     */
+    abstract boolean regionEquals(int start, int end, String literal);
+
+    /**
+     * Returns the {@link String#hashCode()} of the literal for the input
+     * units in [start, end), without creating it.
+     */
+    abstract int hash(int start, int end);
+
+    /**
+     * Returns the index of the first character from index (up to the end of
+     * the currently available input) that is not in the class.
+     */
+    abstract int scan(CharClass cls);
+
+    /**
+     * Returns true if the input is streamed, and thus characters before the
+     * current token may no longer be available.
+     */
+    abstract boolean isStreamed();
+
+    /**
+     * Returns a new stream over the same (non-streamed) input, starting from
+     * the beginning.
+     */
+    abstract CharStream restart();
+
+    /**
+     * Returns true if the next character(s) match their corresponding
+     * class(es), e.g.:
+     *  - peek(SLASH) will match the next character
+     *  - peek(SLASH, SLASH) will match the next two characters
+     *
+     * <p>Fixed-arity overloads are used instead of varargs so that the
+     * hot path of the lexer does not allocate an array per call.
+     */
+    boolean peek(CharClass first) {
+        return has(0) && first.contains(charAt(0));
+    }
+
+    boolean peek(CharClass first, CharClass second) {
+        return has(1)
+            && first.contains(charAt(0))
+            && second.contains(charAt(1));
+    }
+
+    boolean peek(CharClass first, CharClass second, CharClass third) {
+        return has(2)
+            && first.contains(charAt(0))
+            && second.contains(charAt(1))
+            && third.contains(charAt(2));
+    }
+
+    /**
+     * Equivalent to peek, but also advances the character stream.
+     */
+    boolean match(CharClass first) {
+        var peek = peek(first);
+        if (peek) {
+            var width = width();
+            index += width;
+            length += width;
+        }
+        return peek;
+    }
+
+    /**
+     * Equivalent to {@code while (match(cls)) {}}, but scanning the input in
+     * bulk via {@link VectorScanner}.
+     */
+    void matchRun(CharClass cls) {
+        while (has(0) && cls.contains(charAt(0))) {
+            var end = scan(cls);
+            length += end - index;
+            index = end;
+        }
+    }
+
+    /**
+     * Equivalent to {@link #matchRun} followed by {@link #skip}, but also
+     * skipping as the run is scanned so streamed input is not retained.
+     */
+    void skipRun(CharClass cls) {
+        while (has(0) && cls.contains(charAt(0))) {
+            index = scan(cls);
+            length = 0;
+        }
+    }
+
+    /**
+     * Returns the literal built by all characters matched since the last
+     * call to emit(); also resetting the length for subsequent tokens.
+     */
+    String emit() {
+        var literal = literal(index - length, index);
+        length = 0;
+        return literal;
+    }
+
+    /**
+     * Discards all characters matched since the last call to emit(),
+     * such as whitespace or comments, without building a literal.
+     */
+    void skip() {
+        length = 0;
+    }
+
+    /**
+     * Characters held in a buffer covering absolute indices
+     * {@code [base, base + limit)}. For string input this is the entire input,
+     * while for streamed input the buffer is refilled from the reader on
+     * demand, discarding characters before the start of the current token
+     * and only growing when a single token does not fit.
+     */
+    static final class Buffered extends CharStream {
+
+        static final int DEFAULT_CAPACITY = 8192;
+
+        private final Reader reader;
+        private char[] buffer;
+        private int base = 0;
+        private int limit;
+        private boolean eof;
+
+        Buffered(String input) {
+            this(input.toCharArray(), 0);
+        }
+
+        /**
+         * Creates a stream over a shared buffer starting at the given index,
+         * allowing multiple streams to lex (parts of) the same input.
+         */
+        Buffered(char[] buffer, int index) {
+            this.reader = null;
+            this.buffer = buffer;
+            this.limit = buffer.length;
+            this.eof = true;
+            this.index = index;
+        }
+
+        Buffered(Reader reader, int capacity) {
+            this.reader = reader;
+            this.buffer = new char[capacity];
+            this.limit = 0;
+            this.eof = false;
+        }
+
+        @Override
+        boolean has(int offset) {
+            return index + offset < base + limit || fill(index + offset);
+        }
+
+        @Override
+        char charAt(int offset) {
+            return buffer[index + offset - base];
+        }
+
+        @Override
+        char at(int index) {
+            return buffer[index - base];
+        }
+
+        @Override
+        int width() {
+            return Character.isHighSurrogate(charAt(0)) && has(1) && Character.isLowSurrogate(charAt(1)) ? 2 : 1;
+        }
+
+        @Override
+        boolean isSupplementary() {
+            return width() == 2;
+        }
+
+        @Override
+        int scan(CharClass cls) {
+            return VectorScanner.scan(buffer, index - base, limit, cls) + base;
+        }
+
+        @Override
+        boolean isStreamed() {
+            return reader != null;
+        }
+
+        @Override
+        CharStream restart() {
+            return new Buffered(buffer, 0);
+        }
+
+        @Override
+        String literal(int start, int end) {
+            return new String(buffer, start - base, end - start);
+        }
+
+        @Override
+        CharSequence view(int start, int end) {
+            return CharBuffer.wrap(buffer, start - base, end - start).asReadOnlyBuffer();
+        }
+
+        @Override
+        void appendTo(StringBuilder builder, int start, int end) {
+            builder.append(buffer, start - base, end - start);
+        }
+
+        @Override
+        boolean regionEquals(int start, int end, String literal) {
+            if (end - start != literal.length()) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (buffer[start - base + i] != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int hash(int start, int end) {
+            var hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer[i - base];
+            }
+            return hash;
+        }
+
+        /**
+         * Returns the (entire, non-streamed) input as a single piece.
+         */
+        Spliced splice() {
+            Preconditions.checkState(!isStreamed(), "Streamed input cannot be edited.");
+            var builder = new Spliced.Builder(1);
+            builder.add(buffer, 0, limit);
+            return builder.build();
+        }
+
+        /**
+         * Appends to the (non-streamed) input, for the window buffers of
+         * {@link TokenBuffer#window()}.
+         */
+        void append(String string) {
+            Preconditions.checkState(!isStreamed() && base == 0, "Only string input can be appended to.");
+            if (limit + string.length() > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(limit + string.length(), 2 * buffer.length));
+            }
+            string.getChars(0, string.length(), buffer, limit);
+            limit += string.length();
+        }
+
+        /**
+         * Discards the first count characters of the (non-streamed) input,
+         * shifting the remaining characters to the start.
+         */
+        void discard(int count) {
+            Preconditions.checkState(!isStreamed() && base == 0, "Only string input can be discarded.");
+            Objects.checkFromToIndex(0, count, limit);
+            System.arraycopy(buffer, count, buffer, 0, limit - count);
+            limit -= count;
+        }
+
+        /**
+         * Reads from the reader until the character at absolute index target
+         * is buffered, returning false if the input ends first.
+         */
+        private boolean fill(int target) {
+            if (eof) {
+                return false;
+            }
+            try {
+                while (target >= base + limit) {
+                    if (limit == buffer.length) {
+                        var start = index - length;
+                        if (start > base) {
+                            limit = base + limit - start;
+                            System.arraycopy(buffer, start - base, buffer, 0, limit);
+                            base = start;
+                        } else {
+                            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                        }
+                    }
+                    var read = reader.read(buffer, limit, buffer.length - limit);
+                    if (read == -1) {
+                        eof = true;
+                        return false;
+                    }
+                    limit += read;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * UTF-8 encoded bytes scanned in place, such as a memory-mapped file.
+     * Indices are byte offsets and each byte is classified as a character,
+     * which is exact for ASCII. Non-ASCII bytes only match negated classes
+     * (string/character bodies, comments and operators), so when one is
+     * matched the entire encoded character is consumed with it. Literals are
+     * only decoded for emitted tokens.
+     */
+    static final class Mapped extends CharStream {
+
+        private final MemorySegment segment;
+        private final int size;
+
+        Mapped(MemorySegment segment) {
+            if (segment.byteSize() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Input exceeds 2GB: " + segment.byteSize() + " bytes.");
+            }
+            this.segment = segment;
+            this.size = (int) segment.byteSize();
+        }
+
+        @Override
+        boolean has(int offset) {
+            return index + offset < size;
+        }
+
+        @Override
+        char charAt(int offset) {
+            return at(index + offset);
+        }
+
+        @Override
+        char at(int index) {
+            return (char) (segment.get(ValueLayout.JAVA_BYTE, index) & 0xFF);
+        }
+
+        @Override
+        int width() {
+            var lead = charAt(0);
+            var expected = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+            var width = 1;
+            //Malformed sequences only consume valid continuation bytes.
+            while (width < expected && has(width) && (charAt(width) & 0xC0) == 0x80) {
+                width++;
+            }
+            return width;
+        }
+
+        @Override
+        boolean isSupplementary() {
+            return width() == 4;
+        }
+
+        @Override
+        int scan(CharClass cls) {
+            return VectorScanner.scan(segment, index, size, cls);
+        }
+
+        @Override
+        boolean isStreamed() {
+            return false;
+        }
+
+        @Override
+        CharStream restart() {
+            return new Mapped(segment);
+        }
+
+        @Override
+        String literal(int start, int end) {
+            var bytes = segment.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        CharSequence view(int start, int end) {
+            return literal(start, end);
+        }
+
+        @Override
+        void appendTo(StringBuilder builder, int start, int end) {
+            builder.append(literal(start, end));
+        }
+
+        @Override
+        boolean regionEquals(int start, int end, String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                if (literal.charAt(i) >= 0x80) {
+                    return literal(start, end).equals(literal);
+                }
+            }
+            if (end - start != literal.length()) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (segment.get(ValueLayout.JAVA_BYTE, start + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int hash(int start, int end) {
+            var hash = 0;
+            for (int i = start; i < end; i++) {
+                var b = segment.get(ValueLayout.JAVA_BYTE, i);
+                if (b < 0) {
+                    //Non-ASCII literals are hashed by their decoded chars.
+                    return literal(start, end).hashCode();
+                }
+                hash = 31 * hash + b;
+            }
+            return hash;
+        }
+
+    }
+
+    /**
+     * An edited input stored as a piece table: a sequence of pieces, each of
+     * which is a range of a char[] shared with the input it was taken from.
+     * Editing returns a new stream, replacing the pieces covering the edit
+     * and leaving the previous stream unchanged, so an edit only costs time
+     * proportional to the number of pieces instead of the input length.
+     * Once there are more than {@link #MAX_PIECES} pieces, edits flatten the
+     * input into a single piece, amortizing the copy over many edits.
+     */
+    static final class Spliced extends CharStream {
+
+        static final int MAX_PIECES = 256;
+
+        private final char[][] buffers;
+        private final int[] offsets; //offset of each piece within its buffer
+        private final int[] starts; //absolute start of each piece, followed by the input length
+        private int piece = 0; //the piece of the last access, as a hint for the next
+
+        private Spliced(char[][] buffers, int[] offsets, int[] starts, int index) {
+            this.buffers = buffers;
+            this.offsets = offsets;
+            this.starts = starts;
+            this.index = index;
+        }
+
+        /**
+         * Returns the input with the chars in [offset, offset + removed)
+         * replaced by inserted.
+         */
+        Spliced edit(int offset, int removed, String inserted) {
+            var length = starts[buffers.length];
+            Objects.checkFromIndexSize(offset, removed, length);
+            if (buffers.length >= MAX_PIECES) {
+                return flatten().edit(offset, removed, inserted);
+            }
+            var builder = new Builder(buffers.length + 2);
+            builder.add(this, 0, offset);
+            builder.add(inserted.toCharArray(), 0, inserted.length());
+            builder.add(this, offset + removed, length);
+            return builder.build();
+        }
+
+        private Spliced flatten() {
+            var chars = new char[starts[buffers.length]];
+            for (int piece = 0; piece < buffers.length; piece++) {
+                System.arraycopy(buffers[piece], offsets[piece], chars, starts[piece], starts[piece + 1] - starts[piece]);
+            }
+            var builder = new Builder(1);
+            builder.add(chars, 0, chars.length);
+            return builder.build();
+        }
+
+        /**
+         * Returns the piece containing the absolute index, which must be
+         * less than the input length.
+         */
+        private int locate(int index) {
+            var piece = this.piece;
+            if (starts[piece] <= index && index < starts[piece + 1]) {
+                return piece;
+            }
+            var search = Arrays.binarySearch(starts, 0, buffers.length, index);
+            piece = search >= 0 ? search : -search - 2;
+            this.piece = piece;
+            return piece;
+        }
+
+        @Override
+        boolean has(int offset) {
+            return index + offset < starts[buffers.length];
+        }
+
+        @Override
+        char charAt(int offset) {
+            return at(index + offset);
+        }
+
+        @Override
+        char at(int index) {
+            var piece = locate(index);
+            return buffers[piece][offsets[piece] + index - starts[piece]];
+        }
+
+        @Override
+        int width() {
+            return Character.isHighSurrogate(charAt(0)) && has(1) && Character.isLowSurrogate(charAt(1)) ? 2 : 1;
+        }
+
+        @Override
+        boolean isSupplementary() {
+            return width() == 2;
+        }
+
+        @Override
+        int scan(CharClass cls) {
+            var index = this.index;
+            while (index < starts[buffers.length]) {
+                var piece = locate(index);
+                var base = offsets[piece] - starts[piece];
+                var end = starts[piece + 1];
+                index = VectorScanner.scan(buffers[piece], index + base, end + base, cls) - base;
+                if (index < end) {
+                    break;
+                }
+            }
+            return index;
+        }
+
+        @Override
+        boolean isStreamed() {
+            return false;
+        }
+
+        @Override
+        Spliced restart() {
+            return new Spliced(buffers, offsets, starts, 0);
+        }
+
+        @Override
+        String literal(int start, int end) {
+            if (start == end) {
+                return "";
+            }
+            var piece = locate(start);
+            if (end <= starts[piece + 1]) {
+                return new String(buffers[piece], offsets[piece] + start - starts[piece], end - start);
+            }
+            var builder = new StringBuilder(end - start);
+            appendTo(builder, start, end);
+            return builder.toString();
+        }
+
+        @Override
+        CharSequence view(int start, int end) {
+            if (start == end) {
+                return "";
+            }
+            var piece = locate(start);
+            if (end <= starts[piece + 1]) {
+                return CharBuffer.wrap(buffers[piece], offsets[piece] + start - starts[piece], end - start).asReadOnlyBuffer();
+            }
+            return literal(start, end);
+        }
+
+        @Override
+        void appendTo(StringBuilder builder, int start, int end) {
+            while (start < end) {
+                var piece = locate(start);
+                var next = Math.min(end, starts[piece + 1]);
+                builder.append(buffers[piece], offsets[piece] + start - starts[piece], next - start);
+                start = next;
+            }
+        }
+
+        @Override
+        boolean regionEquals(int start, int end, String literal) {
+            if (end - start != literal.length()) {
+                return false;
+            }
+            for (int i = 0; i < literal.length(); i++) {
+                if (at(start + i) != literal.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int hash(int start, int end) {
+            var hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + at(i);
+            }
+            return hash;
+        }
+
+        /**
+         * Builds the pieces of a new input, omitting empty pieces.
+         */
+        private static final class Builder {
+
+            private final char[][] buffers;
+            private final int[] offsets;
+            private final int[] starts;
+            private int count = 0;
+
+            private Builder(int capacity) {
+                this.buffers = new char[capacity][];
+                this.offsets = new int[capacity];
+                this.starts = new int[capacity + 1];
+            }
+
+            private void add(char[] buffer, int offset, int length) {
+                if (length != 0) {
+                    buffers[count] = buffer;
+                    offsets[count] = offset;
+                    starts[count + 1] = starts[count] + length;
+                    count++;
+                }
+            }
+
+            /**
+             * Adds the pieces of input covering the chars in [from, to).
+             */
+            private void add(Spliced input, int from, int to) {
+                for (int piece = from < to ? input.locate(from) : input.buffers.length; piece < input.buffers.length && input.starts[piece] < to; piece++) {
+                    var start = Math.max(from, input.starts[piece]);
+                    var end = Math.min(to, input.starts[piece + 1]);
+                    add(input.buffers[piece], input.offsets[piece] + start - input.starts[piece], end - start);
+                }
+            }
+
+            private Spliced build() {
+                return new Spliced(Arrays.copyOf(buffers, count), Arrays.copyOf(offsets, count), Arrays.copyOf(starts, count + 1), 0);
+            }
+
+        }
+
+    }
+
+}
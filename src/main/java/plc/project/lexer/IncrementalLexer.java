@@ -0,0 +1,118 @@
+package plc.project.lexer;
+
+/**
+ * Re-lexes a previously lexed input after an edit, only lexing the region
+ * damaged by the edit instead of the entire input.
+ *
+ * <p>Lexing restarts after the last token which could not have observed the
+ * edit, accounting for characters examined past the end of each token (see
+ * {@link #lookahead}), which is found with a binary search. Tokens are then
+ * lexed until the lexer reaches a position after the edit where a previous
+ * token started; since lexing is deterministic from a token boundary and the
+ * remaining input is unchanged, all following tokens are the same as before
+ * (shifted by the change in length) and are reused.
+ *
+ * <p>Neither the input nor the tokens are copied: the edited input is a piece
+ * table sharing the previous input (see {@link CharStream.Spliced}), and the
+ * resulting buffer shares the tokens before and after the damaged region with
+ * the previous buffer (see {@link TokenBuffer#splice}). An edit therefore
+ * costs time proportional to the damaged region and the number of previous
+ * edits, which is periodically reset by compacting, rather than to the length
+ * of the input. Previous buffers remain valid.
+ *
+ * <p>The resulting buffer shares the symbol table of the previous buffer, so
+ * symbol ids remain comparable between versions until the buffer is
+ * compacted. Decoded literals of re-lexed tokens are stored in a new pool for
+ * each edit, so literals of replaced tokens are not retained by later
+ * versions.
+ */
+public final class IncrementalLexer {
+
+    private static final int MAX_LOOKAHEAD = 3;
+
+    /**
+     * The result of re-lexing, where the previous tokens [start, oldEnd) have
+     * been replaced by the tokens [start, newEnd) of tokens.
+     */
+    public record Result(TokenBuffer tokens, int start, int oldEnd, int newEnd) {}
+
+    private IncrementalLexer() {}
+
+    /**
+     * Re-lexes the input of previous with the characters in
+     * [offset, offset + removed) replaced by inserted. The previous buffer
+     * must have been lexed from a string (not a streamed or mapped input), or
+     * be the result of a previous edit.
+     */
+    public static Result relex(TokenBuffer previous, int offset, int removed, String inserted) throws LexException {
+        var source = switch (previous.source()) {
+            case CharStream.Spliced spliced -> spliced;
+            case CharStream.Buffered buffered when !buffered.isStreamed() -> buffered.splice();
+            default -> throw new IllegalArgumentException("Only tokens lexed from a string can be re-lexed.");
+        };
+        var chars = source.edit(offset, removed, inserted);
+        var delta = inserted.length() - removed;
+        var editEnd = offset + inserted.length();
+
+        var start = firstDamaged(previous, offset);
+        var restart = start == 0 ? 0 : previous.end(start - 1);
+
+        var stream = chars.restart();
+        stream.index = restart;
+        var lexer = new Lexer(stream, previous.symbols());
+        var relexed = new TokenBuffer(stream, previous.symbols(), new LiteralPool());
+        var oldEnd = start;
+        //Lexing up to restart only skips whitespace/comments before the next token.
+        var position = lexer.lexBuffer(relexed, restart);
+        while (true) {
+            if (position >= editEnd) {
+                while (oldEnd < previous.size() && previous.start(oldEnd) + delta < position) {
+                    oldEnd++;
+                }
+                if (!stream.has(0) || oldEnd < previous.size() && previous.start(oldEnd) + delta == position) {
+                    break;
+                }
+            }
+            position = lexer.lexBuffer(relexed, position + 1);
+        }
+
+        var tokens = TokenBuffer.splice(previous, start, oldEnd, relexed, delta, chars);
+        return new Result(tokens, start, oldEnd, start + relexed.size());
+    }
+
+    /**
+     * Returns the index of the first token which may have observed a change
+     * at offset, i.e. whose end plus lookahead is after offset.
+     */
+    private static int firstDamaged(TokenBuffer previous, int offset) {
+        //Ends are increasing, so binary search for the first token which may
+        //have observed offset with the maximum lookahead, then check exactly.
+        int low = 0, high = previous.size();
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (previous.end(middle) + MAX_LOOKAHEAD <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        while (low < previous.size() && previous.end(low) + lookahead(previous.type(low)) <= offset) {
+            low++;
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of characters the lexer may examine past the end of
+     * a token of the given type. Numbers check for a fractional part or
+     * exponent, as in {@code peek(EXPONENT, SIGN, DIGIT)}, while other tokens
+     * check at most the following character.
+     */
+    private static int lookahead(Token.Type type) {
+        return switch (type) {
+            case INTEGER, DECIMAL -> MAX_LOOKAHEAD;
+            default -> 1;
+        };
+    }
+
+}
@@ -1,7 +1,27 @@
 package plc.project.lexer;
 
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static plc.project.lexer.CharClass.*;
 
 /**
  * The lexer works through a combination of {@link #lex()}, which repeatedly
@@ -11,56 +31,296 @@ import java.util.List;
  *
  * <p>Additionally, {@link CharStream} manages the lexer state and contains
  * {@link CharStream#peek} and {@link CharStream#match}. These are helpful
- * utilities for working with character state and building tokens.
+ * utilities for working with character state and building tokens. Characters
+ * are classified using the precomputed tables in {@link CharClass}, so the
+ * lexer does not allocate while examining characters. Runs of whitespace,
+ * comment bodies and string bodies are scanned in bulk, using SIMD
+ * instructions when available (see {@link VectorScanner}).
+ *
+ * <p>Input may also be streamed from a {@link Reader} or
+ * {@link ReadableByteChannel}, in which case {@link CharStream} only buffers
+ * the characters of the current token (growing for long tokens as needed).
+ * Combined with {@link #iterator()}/{@link #stream()}, which lex tokens on
+ * demand, peak memory depends on the longest token and not the input size.
+ *
+ * <p>Finally, files can be lexed via {@link #lex(Path)}, which memory-maps the
+ * file and scans the UTF-8 bytes in place rather than decoding the entire
+ * file first. In this case, {@link LexException#getIndex()} is a byte offset.
+ *
+ * <p>As an alternative to {@link #lex()}, {@link #lexBuffer()} collects tokens
+ * into a {@link TokenBuffer}, which stores offsets into the input instead of
+ * literal Strings. With {@link #lexBuffer(Path)}, literals of mapped files are
+ * then only decoded when requested.
+ *
+ * <p>Identifier and operator literals are interned in a {@link SymbolTable}
+ * as they are lexed, so repeated identifiers (and keywords) share a single
+ * String, and keywords/operators are tagged with their predefined ids.
+ *
+ * <p>Line and column numbers are not tracked while lexing; instead,
+ * {@link #lines()} builds a {@link LineIndex} on demand to map offsets.
+ *
+ * <p>Lastly, {@link #lexRecovering()} reports every lex error in a single
+ * pass instead of stopping at the first one, skipping the remainder of each
+ * invalid token up to the next whitespace.
  */
 public final class Lexer {
 
+    /**
+     * The result of {@link #lexRecovering()}, containing all valid tokens and
+     * the errors encountered, both in input order.
+     */
+    public record Result(List<Token> tokens, List<LexException> errors) {}
+
     private final CharStream chars;
+    private final SymbolTable symbols;
+    private LineIndex lines;
+    private LiteralPool literals; //decoding escapes only when lexing into a TokenBuffer
+    private int payload = -1;
 
     public Lexer(String input) {
-        chars = new CharStream(input);
+        this(new CharStream.Buffered(input));
+    }
+
+    /**
+     * Creates a lexer streaming characters from the given reader, which is
+     * not closed by the lexer.
+     */
+    public Lexer(Reader reader) {
+        this(reader, CharStream.Buffered.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a lexer streaming UTF-8 encoded characters from the given
+     * channel, which is not closed by the lexer.
+     */
+    public Lexer(ReadableByteChannel channel) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a lexer scanning UTF-8 encoded bytes from the given segment,
+     * which must remain accessible while lexing.
+     */
+    public Lexer(MemorySegment segment) {
+        this(new CharStream.Mapped(segment));
+    }
+
+    Lexer(Reader reader, int capacity) {
+        this(new CharStream.Buffered(reader, capacity));
+    }
+
+    Lexer(CharStream chars) {
+        this(chars, new SymbolTable());
+    }
+
+    Lexer(CharStream chars, SymbolTable symbols) {
+        this.chars = chars;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Lexes the UTF-8 encoded file at the given path, which is memory-mapped
+     * for the duration of lexing.
+     */
+    public static List<Token> lex(Path path) throws IOException, LexException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ); var arena = Arena.ofConfined()) {
+            var segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return new Lexer(segment).lex();
+        }
+    }
+
+    /**
+     * Lexes the UTF-8 encoded file at the given path into a token buffer. The
+     * file remains mapped (for decoding literals) until the buffer becomes
+     * unreachable.
+     */
+    public static TokenBuffer lexBuffer(Path path) throws IOException, LexException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+            return new Lexer(segment).lexBuffer();
+        }
     }
 
     public List<Token> lex() throws LexException {
         var tokens = new ArrayList<Token>();
+        while (skipTrivia()) {
+            var type = lexToken();
+            tokens.add(emit(type));
+        }
+        return tokens;
+    }
+
+    /**
+     * Equivalent to {@link #lex()}, but recording lex errors instead of
+     * throwing them. After an error, the characters of the invalid token up
+     * to the next whitespace (such as the rest of a malformed string) are
+     * skipped and lexing continues with the following token.
+     */
+    public Result lexRecovering() {
+        var tokens = new ArrayList<Token>();
+        var errors = new ArrayList<LexException>();
+        while (skipTrivia()) {
+            var start = chars.index;
+            try {
+                var type = lexToken();
+                tokens.add(emit(type));
+            } catch (LexException e) {
+                errors.add(e);
+                if (chars.index == start) {
+                    chars.match(NON_WHITESPACE);
+                }
+                chars.skipRun(NON_WHITESPACE);
+                chars.skip();
+            }
+        }
+        return new Result(tokens, errors);
+    }
+
+    /**
+     * Equivalent to {@link #lex()}, but collecting tokens into a
+     * {@link TokenBuffer} without creating literals. Not supported for
+     * streamed input, as the buffer references the entire input.
+     */
+    public TokenBuffer lexBuffer() throws LexException {
+        Preconditions.checkState(!chars.isStreamed(), "Streamed input cannot be lexed into a TokenBuffer.");
+        var tokens = new TokenBuffer(chars, symbols);
+        lexBuffer(tokens, Integer.MAX_VALUE);
+        return tokens;
+    }
+
+    /**
+     * Lexes all tokens starting before the index end into tokens, returning
+     * the index at which lexing stopped (the start of the next token, or the
+     * end of the input).
+     */
+    int lexBuffer(TokenBuffer tokens, int end) throws LexException {
+        literals = tokens.literals();
+        while (skipTrivia() && chars.index < end) {
+            payload = -1;
+            var type = lexToken();
+            var start = chars.index - chars.length;
+            if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+                payload = symbols.intern(chars, start, chars.index);
+            }
+            tokens.add(type, start, chars.index, payload);
+            chars.skip();
+        }
+        return chars.index;
+    }
+
+    SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the line index of the input, built on the first call, for
+     * locating tokens and {@link LexException}s. Not supported for streamed
+     * input, which is not retained.
+     */
+    public LineIndex lines() {
+        Preconditions.checkState(!chars.isStreamed(), "Streamed input has no line index.");
+        if (lines == null) {
+            lines = new LineIndex(chars);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns an iterator lexing tokens on demand. Lex errors are thrown from
+     * {@link Iterator#next()} wrapped in an {@link UncheckedLexException}.
+     */
+    public Iterator<Token> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return skipTrivia();
+            }
+
+            @Override
+            public Token next() {
+                if (!skipTrivia()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    var type = lexToken();
+                    return emit(type);
+                } catch (LexException e) {
+                    throw new UncheckedLexException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a sequential stream of tokens lexed on demand, as with
+     * {@link #iterator()}.
+     */
+    public Stream<Token> stream() {
+        var spliterator = Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Returns a token of the given type for the characters matched since the
+     * last emit, using the canonical instance for identifiers and operators.
+     * For streamed input, symbols are only looked up (in practice, only the
+     * predefined keywords and operators), so the table does not grow with the
+     * input.
+     */
+    private Token emit(Token.Type type) {
+        if (type == Token.Type.IDENTIFIER || type == Token.Type.OPERATOR) {
+            var start = chars.index - chars.length;
+            var symbol = chars.isStreamed()
+                ? symbols.find(chars, start, chars.index)
+                : symbols.intern(chars, start, chars.index);
+            if (symbol != -1) {
+                chars.skip();
+                return new Token(type, symbols.symbol(symbol));
+            }
+        }
+        return new Token(type, chars.emit());
+    }
+
+    /**
+     * Skips whitespace/comments, returning true if there is another token.
+     */
+    private boolean skipTrivia() {
         while (chars.has(0)) {
-            // Skip whitespace/comments
-            if (chars.peek("[ \b\n\r\t]")) {
+            if (chars.peek(WHITESPACE)) {
                 lexWhitespace();
-            } else if (chars.peek("/", "/")) {
+            } else if (chars.peek(SLASH, SLASH)) {
                 lexComment();
             } else {
-                tokens.add(lexToken());
+                return true;
             }
         }
-        return tokens;
+        return false;
     }
 
     private void lexWhitespace() {
-        while (chars.match("[ \b\n\r\t]")) {} // Took out \t character because of provided test but I think it should be there
-        chars.emit();
+        chars.skipRun(WHITESPACE); // Took out \t character because of provided test but I think it should be there
     }
 
     private void lexComment() {
-        if (chars.peek("/", "/")) {
-            chars.match("/");
-            chars.match("/");
-            while (chars.match("[^\\n\\r]")) {}
+        if (chars.peek(SLASH, SLASH)) {
+            chars.match(SLASH);
+            chars.match(SLASH);
+            chars.skipRun(COMMENT_BODY);
         }
-        chars.emit();
+        chars.skip();
     }
 
-    private Token lexToken() throws LexException {
+    private Token.Type lexToken() throws LexException {
 
-        if (chars.peek("[A-Za-z_]")) {
+        if (chars.peek(IDENTIFIER_START)) {
             return lexIdentifier();
-        } else if (chars.peek("[0-9]") || chars.peek("[+-]", "[0-9]")) {
+        } else if (chars.peek(DIGIT) || chars.peek(SIGN, DIGIT)) {
             return lexNumber();
-        } else if (chars.peek("'")) {
+        } else if (chars.peek(SINGLE_QUOTE)) {
             return lexCharacter();
-        } else if (chars.peek("\"")) {
+        } else if (chars.peek(DOUBLE_QUOTE)) {
             return lexString();
-        } else if (chars.peek("[<>!=.+]") || chars.peek("[^A-Za-z_0-9'\" \b\\n\\r\\t]")) {
+        } else if (chars.peek(COMPOUND_OPERATOR) || chars.peek(OPERATOR)) {
             return lexOperator();
         } else {
             throw new LexException("Not a valid token", chars.index);
@@ -68,172 +328,144 @@ public final class Lexer {
 
     }
 
-    private Token lexIdentifier() throws LexException {
-        if (chars.peek("[A-Za-z_]")) {
-            chars.match("[A-Za-z_]");
-            while (chars.peek("[A-Za-z0-9_-]")) {
-                chars.match("[A-Za-z0-9_-]");
+    private Token.Type lexIdentifier() throws LexException {
+        if (chars.peek(IDENTIFIER_START)) {
+            chars.match(IDENTIFIER_START);
+            while (chars.peek(IDENTIFIER_PART)) {
+                chars.match(IDENTIFIER_PART);
             }
-            return new Token(Token.Type.IDENTIFIER, chars.emit());
+            return Token.Type.IDENTIFIER;
         }
         throw new LexException("No identifier parsed", chars.index);
     }
 
-    private Token lexNumber() {
+    private Token.Type lexNumber() {
         boolean isInteger = true;
 
-        if (chars.peek("[+-]")) {
-            chars.match("[+-]");
+        if (chars.peek(SIGN)) {
+            chars.match(SIGN);
         }
-        if (chars.peek("[0-9]")) {
-            chars.match("[0-9]");
-            while (chars.peek("[0-9]")) {
-                chars.match("[0-9]");
+        if (chars.peek(DIGIT)) {
+            chars.match(DIGIT);
+            while (chars.peek(DIGIT)) {
+                chars.match(DIGIT);
             }
-            if (chars.peek("[.]", "[0-9]")) {
+            if (chars.peek(DECIMAL_POINT, DIGIT)) {
                 isInteger = false;
-                chars.match("[.]");
-                while (chars.peek("[0-9]")) {
-                    chars.match("[0-9]");
+                chars.match(DECIMAL_POINT);
+                while (chars.peek(DIGIT)) {
+                    chars.match(DIGIT);
                 }
             }
-            if (chars.peek("[e]", "[+-]", "[0-9]") || chars.peek("[e]", "[0-9]")) {
-                chars.match("[e]");
-                chars.match("[+-]");
-                while (chars.peek("[0-9]")) {
-                    chars.match("[0-9]");
+            if (chars.peek(EXPONENT, SIGN, DIGIT) || chars.peek(EXPONENT, DIGIT)) {
+                chars.match(EXPONENT);
+                chars.match(SIGN);
+                while (chars.peek(DIGIT)) {
+                    chars.match(DIGIT);
                 }
             }
         }
         if (isInteger) {
-            return new Token(Token.Type.INTEGER, chars.emit());
+            return Token.Type.INTEGER;
         } else {
-            return new Token(Token.Type.DECIMAL, chars.emit());
+            return Token.Type.DECIMAL;
         }
     }
 
-    private Token lexCharacter() throws LexException {
-        if (chars.peek("'")) {
-            chars.match("'");
-            if (chars.peek("[^'\\n\\r\\\\]")) {
-                chars.match("[^'\\n\\r\\\\]");
-            } else if (chars.peek("\\\\")) {
-                lexEscape();
+    private Token.Type lexCharacter() throws LexException {
+        if (chars.peek(SINGLE_QUOTE)) {
+            chars.match(SINGLE_QUOTE);
+            if (chars.peek(CHARACTER_BODY) && chars.isSupplementary()) {
+                throw new LexException("Invalid character token - not a single char", chars.index);
+            } else if (chars.peek(CHARACTER_BODY)) {
+                chars.match(CHARACTER_BODY);
+            } else if (chars.peek(BACKSLASH)) {
+                var escape = lexEscape();
+                if (literals != null) {
+                    literals.begin();
+                    literals.append(escape);
+                    payload = literals.end();
+                }
             } else {
                 throw new LexException("Invalid escape sequence - invalid character", chars.index);
             }
         }
-        if (chars.peek("'")) {
-            chars.match("'");
-            return new Token(Token.Type.CHARACTER, chars.emit());
+        if (chars.peek(SINGLE_QUOTE)) {
+            chars.match(SINGLE_QUOTE);
+            return Token.Type.CHARACTER;
         }
         throw new LexException("Invalid character token - no closing '", chars.index);
     }
 
-    private Token lexString() throws LexException {
-        if (chars.match("\"")) {
-            while (chars.has(0) && !chars.peek("\"")) {
-                if (chars.peek("[^\"\\n\\r\\\\]")) {
-                    chars.match("[^\"\\n\\r\\\\]");
-                } else if (chars.peek("\\\\")) {
-                    lexEscape();
+    /**
+     * Lexes a string, decoding its payload into {@link #literals} (if present)
+     * once an escape is found. Characters before the first escape are copied
+     * at that point, so strings without escapes are never copied.
+     */
+    private Token.Type lexString() throws LexException {
+        if (chars.match(DOUBLE_QUOTE)) {
+            var start = chars.index;
+            var escaped = false;
+            while (chars.has(0) && !chars.peek(DOUBLE_QUOTE)) {
+                if (chars.peek(STRING_BODY)) {
+                    var run = chars.index;
+                    chars.matchRun(STRING_BODY);
+                    if (escaped) {
+                        literals.append(chars, run, chars.index);
+                    }
+                } else if (chars.peek(BACKSLASH)) {
+                    var run = chars.index;
+                    var escape = lexEscape();
+                    if (literals != null) {
+                        if (!escaped) {
+                            literals.begin();
+                            literals.append(chars, start, run);
+                            escaped = true;
+                        }
+                        literals.append(escape);
+                    }
                 } else {
                     throw new LexException("Invalid escape sequence - invalid character", chars.index);
                 }
             }
-            if (chars.match("\"")) {
-                return new Token(Token.Type.STRING, chars.emit());
+            if (chars.match(DOUBLE_QUOTE)) {
+                if (escaped) {
+                    payload = literals.end();
+                }
+                return Token.Type.STRING;
             }
         }
 
         throw new LexException("Invalid string identifier - no closing \"", chars.index);
     }
 
-    private void lexEscape() throws LexException {
-        chars.match("\\\\");
-        if (chars.peek("[bnrt'\"\\\\]")) {
-            chars.match("[bnrt'\"\\\\]");
+    /**
+     * Lexes an escape sequence, returning the character it represents.
+     */
+    private char lexEscape() throws LexException {
+        chars.match(BACKSLASH);
+        if (chars.peek(ESCAPE)) {
+            var escape = chars.charAt(0);
+            chars.match(ESCAPE);
+            return LiteralPool.unescape(escape);
         } else {
             throw new LexException("Invalid escape sequence - invalid character", chars.index);
         }
     }
 
-    public Token lexOperator() throws LexException {
-        if (chars.peek("[<>!=.+]")) {
-            chars.match("[<>!=.+]");
-            if (chars.peek("=")) {
-                chars.match("=");
-                return new Token(Token.Type.OPERATOR, chars.emit());
+    private Token.Type lexOperator() throws LexException {
+        if (chars.peek(COMPOUND_OPERATOR)) {
+            chars.match(COMPOUND_OPERATOR);
+            if (chars.peek(EQUALS)) {
+                chars.match(EQUALS);
+                return Token.Type.OPERATOR;
             }
-            return new Token(Token.Type.OPERATOR, chars.emit());
-        } else if (chars.peek("[^A-Za-z_0-9'\" \\n\\r\\t]")) {
-            chars.match("[^A-Za-z_0-9'\" \\n\\r\\t]");
-            return new Token(Token.Type.OPERATOR, chars.emit());
+            return Token.Type.OPERATOR;
+        } else if (chars.peek(OPERATOR)) {
+            chars.match(OPERATOR);
+            return Token.Type.OPERATOR;
         }
         throw new LexException("Invalid operator", chars.index);
     }
 
-    /**
-     * A helper class for maintaining the state of the character stream (input)
-     * and methods for building up token literals.
-     */
-    private static final class CharStream {
-
-        private final String input;
-        private int index = 0;
-        private int length = 0;
-
-        public CharStream(String input) {
-            this.input = input;
-        }
-
-        public boolean has(int offset) {
-            return index + offset < input.length();
-        }
-
-        /**
-         * Returns true if the next character(s) match their corresponding
-         * pattern(s). Each pattern is a regex matching ONE character, e.g.:
-         *  - peek("/") is valid and will match the next character
-         *  - peek("/", "/") is valid and will match the next two characters
-         *  - peek("/+") is conceptually invalid, but will match one character
-         *  - peek("//") is strictly invalid as it can never match one character
-         */
-        public boolean peek(String... patterns) {
-            if (!has(patterns.length - 1)) {
-                return false;
-            }
-            for (int offset = 0; offset < patterns.length; offset++) {
-                var character = input.charAt(index + offset);
-                if (!String.valueOf(character).matches(patterns[offset])) {
-                    return false;
-                }
-            }
-            return true;
-        }
-
-        /**
-         * Equivalent to peek, but also advances the character stream.
-         */
-        public boolean match(String... patterns) {
-            var peek = peek(patterns);
-            if (peek) {
-                index += patterns.length;
-                length += patterns.length;
-            }
-            return peek;
-        }
-
-        /**
-         * Returns the literal built by all characters matched since the last
-         * call to emit(); also resetting the length for subsequent tokens.
-         */
-        public String emit() {
-            var literal = input.substring(index - length, index);
-            length = 0;
-            return literal;
-        }
-
-    }
-
 }
@@ -0,0 +1,88 @@
+package plc.project.lexer;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static plc.project.lexer.CharClass.*;
+
+/**
+ * A table of line start offsets for an input, mapping offsets (such as
+ * {@link TokenBuffer#start(int)} or {@link LexException#getIndex()}) to line
+ * and column numbers with a binary search.
+ *
+ * <p>Line breaks are {@code \n}, {@code \r\n} and {@code \r}, and lines and
+ * columns are numbered from 1. As with offsets, columns count chars for string
+ * input and bytes for mapped files.
+ *
+ * <p>An index is built by scanning the input once, which is only done on the
+ * first request via {@link Lexer#lines()} or {@link TokenBuffer#lines()}, so
+ * lexing itself does no extra work when positions are never needed.
+ */
+public final class LineIndex {
+
+    public record Position(int line, int column) {
+
+        @Override
+        public String toString() {
+            return line + ":" + column;
+        }
+
+    }
+
+    private final int[] starts;
+    private final int count;
+    private final int length;
+
+    LineIndex(CharStream source) {
+        var chars = source.restart();
+        var starts = new int[16];
+        var count = 1;
+        while (chars.has(0)) {
+            chars.skipRun(COMMENT_BODY);
+            if (chars.peek(CARRIAGE_RETURN, NEWLINE)) {
+                chars.match(CARRIAGE_RETURN);
+            }
+            if (chars.match(LINE_BREAK)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * count);
+                }
+                starts[count++] = chars.index;
+            }
+            chars.skip();
+        }
+        this.starts = starts;
+        this.count = count;
+        this.length = chars.index;
+    }
+
+    public static LineIndex of(String input) {
+        return new LineIndex(new CharStream.Buffered(input));
+    }
+
+    /**
+     * Returns the number of lines, which is one more than the number of line
+     * breaks.
+     */
+    public int lines() {
+        return count;
+    }
+
+    /**
+     * Returns the line containing the offset, which may be the end of input.
+     */
+    public int line(int offset) {
+        Objects.checkIndex(offset, length + 1);
+        var search = Arrays.binarySearch(starts, 0, count, offset);
+        return search >= 0 ? search + 1 : -search - 1;
+    }
+
+    public int column(int offset) {
+        return offset - starts[line(offset) - 1] + 1;
+    }
+
+    public Position position(int offset) {
+        var line = line(offset);
+        return new Position(line, offset - starts[line - 1] + 1);
+    }
+
+}
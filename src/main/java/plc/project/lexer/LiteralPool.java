@@ -0,0 +1,105 @@
+package plc.project.lexer;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * The decoded payloads of string and character literals containing escapes,
+ * stored consecutively in a single shared buffer. Literals without escapes
+ * are not stored, as their payload is exactly the source between the quotes.
+ *
+ * <p>A payload is built with {@link #begin()}, any number of appends, and
+ * {@link #end()}, which returns its id. Beginning a payload discards any
+ * unfinished one (e.g. from a literal with an invalid escape).
+ */
+final class LiteralPool {
+
+    private final StringBuilder chars = new StringBuilder();
+    private int[] offsets = new int[16];
+    private int size = 0;
+
+    /**
+     * Returns the character represented by the escape sequence {@code \c},
+     * where c is in {@link CharClass#ESCAPE}. As when strings were decoded by
+     * the parser, {@code \b} is simply {@code b}.
+     */
+    static char unescape(char c) {
+        return switch (c) {
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            default -> c;
+        };
+    }
+
+    void begin() {
+        chars.setLength(offsets[size]);
+    }
+
+    void append(char c) {
+        chars.append(c);
+    }
+
+    void append(CharStream source, int start, int end) {
+        source.appendTo(chars, start, end);
+    }
+
+    int end() {
+        if (size + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        offsets[++size] = chars.length();
+        return size - 1;
+    }
+
+    /**
+     * Decodes the payload of the (valid) literal in [start, end), including
+     * quotes, returning its id or -1 if it contains no escapes.
+     */
+    int decode(CharStream source, int start, int end) {
+        var escaped = false;
+        var run = start + 1;
+        for (int index = start + 1; index < end - 1; index++) {
+            if (source.at(index) == '\\') {
+                if (!escaped) {
+                    begin();
+                    escaped = true;
+                }
+                append(source, run, index);
+                append(unescape(source.at(++index)));
+                run = index + 1;
+            }
+        }
+        if (!escaped) {
+            return -1;
+        }
+        append(source, run, end - 1);
+        return end();
+    }
+
+    /**
+     * Copies the payload with the given id from another pool, returning its
+     * id in this pool.
+     */
+    int copy(LiteralPool other, int id) {
+        begin();
+        chars.append(other.chars, other.offsets[id], other.offsets[id + 1]);
+        return end();
+    }
+
+    /**
+     * Removes all payloads, invalidating their ids.
+     */
+    void clear() {
+        chars.setLength(0);
+        size = 0;
+    }
+
+    /**
+     * Returns a read-only view of the payload with the given id.
+     */
+    CharSequence get(int id) {
+        return CharBuffer.wrap(chars, offsets[id], offsets[id + 1]);
+    }
+
+}
@@ -0,0 +1,97 @@
+package plc.project.lexer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Decodes the values of number tokens directly from the source input,
+ * without creating the token's literal.
+ *
+ * <p>Values are accumulated as a {@code long} (the unscaled value for
+ * decimals) along with a scale, which is exact for up to 18 significant
+ * digits. Such values are converted with {@link BigInteger#valueOf} /
+ * {@link BigDecimal#valueOf(long, int)} (using cached instances for small
+ * integers), and only longer literals fall back to parsing the literal. In
+ * both cases the result is equal to {@code new BigInteger(literal)} or
+ * {@code new BigDecimal(literal)}, including the scale of decimals.
+ */
+final class NumberLiteral {
+
+    private static final int MAX_DIGITS = 18;
+    private static final int MAX_EXPONENT_DIGITS = 9;
+    private static final BigInteger[] SMALL = new BigInteger[1024];
+
+    static {
+        for (int i = 0; i < SMALL.length; i++) {
+            SMALL[i] = BigInteger.valueOf(i);
+        }
+    }
+
+    private NumberLiteral() {}
+
+    /**
+     * Returns the value of the number literal in [start, end), which is a
+     * {@link BigDecimal} if it has a fractional part or exponent and a
+     * {@link BigInteger} otherwise.
+     */
+    static Number decode(CharStream source, int start, int end) {
+        var index = start;
+        var negative = source.at(index) == '-';
+        if (negative || source.at(index) == '+') {
+            index++;
+        }
+        long unscaled = 0;
+        var digits = 0;
+        var scale = 0;
+        var decimal = false;
+        for (; index < end && source.at(index) != 'e'; index++) {
+            var c = source.at(index);
+            if (c == '.') {
+                decimal = true;
+            } else {
+                unscaled = 10 * unscaled + (c - '0');
+                if (unscaled != 0 && ++digits > MAX_DIGITS) {
+                    return fallback(source, start, end);
+                }
+                if (decimal) {
+                    scale++;
+                }
+            }
+        }
+        if (index < end) {
+            decimal = true;
+            index++;
+            var negativeExponent = source.at(index) == '-';
+            if (negativeExponent || source.at(index) == '+') {
+                index++;
+            }
+            if (end - index > MAX_EXPONENT_DIGITS) {
+                return fallback(source, start, end);
+            }
+            var exponent = 0;
+            for (; index < end; index++) {
+                exponent = 10 * exponent + (source.at(index) - '0');
+            }
+            scale += negativeExponent ? exponent : -exponent;
+        }
+        if (negative) {
+            unscaled = -unscaled;
+        }
+        if (decimal) {
+            return BigDecimal.valueOf(unscaled, scale);
+        } else if (unscaled >= 0 && unscaled < SMALL.length) {
+            return SMALL[(int) unscaled];
+        } else {
+            return BigInteger.valueOf(unscaled);
+        }
+    }
+
+    private static Number fallback(CharStream source, int start, int end) {
+        var literal = source.literal(start, end);
+        if (literal.indexOf('.') != -1 || literal.indexOf('e') != -1) {
+            return new BigDecimal(literal);
+        }
+        return new BigInteger(literal);
+    }
+
+}
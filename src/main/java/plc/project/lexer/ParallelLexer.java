@@ -0,0 +1,124 @@
+package plc.project.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Lexes large inputs in parallel by splitting them into chunks at line
+ * boundaries, lexing each chunk on a {@link ForkJoinPool}, and stitching the
+ * results into a single {@link TokenBuffer} identical to
+ * {@link Lexer#lexBuffer()}.
+ *
+ * <p>Each chunk is lexed speculatively, assuming its start is not inside a
+ * token. A chunk lexes every token starting before the end of the chunk
+ * (possibly reading past it) and records where it stopped. While stitching,
+ * the next chunk is only accepted if its first token starts exactly where the
+ * previous chunk stopped; as lexing is deterministic from a token boundary,
+ * the remaining tokens are then identical to sequential lexing. Otherwise,
+ * such as for a chunk starting inside a string or comment, the chunk is
+ * re-lexed from where the previous chunk stopped. With the current grammar no
+ * token spans a newline, so in practice this fix-up pass is rarely needed, but
+ * it keeps the result correct regardless of where chunks are split.
+ *
+ * <p>Lex errors are reported for the first (accepted) chunk containing one,
+ * which is the same error as sequential lexing.
+ */
+public final class ParallelLexer {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelLexer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelLexer(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelLexer(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public TokenBuffer lex(String input) throws LexException {
+        var chars = input.toCharArray();
+        var bounds = split(chars);
+        var tasks = new ArrayList<ForkJoinTask<Chunk>>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            var start = bounds[i];
+            var end = bounds[i + 1];
+            tasks.add(pool.submit(() -> Chunk.lex(chars, start, end)));
+        }
+        var symbols = new SymbolTable();
+        var tokens = new TokenBuffer(new CharStream.Buffered(chars, 0), symbols);
+        var stop = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            var chunk = tasks.get(i).join();
+            if (chunk.first != stop) {
+                chunk = Chunk.lex(chars, stop, bounds[i + 1]);
+            }
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+            chunk.copyTo(tokens);
+            stop = chunk.stop;
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the chunk boundaries, including 0 and chars.length, where each
+     * interior boundary immediately follows a newline.
+     */
+    private int[] split(char[] chars) {
+        var count = Math.max(1, Math.min(chars.length / chunkSize, 4 * pool.getParallelism()));
+        var bounds = new int[count + 1];
+        var size = 1;
+        for (int i = 1; i < count; i++) {
+            var index = Math.max((int) ((long) chars.length * i / count), bounds[size - 1]);
+            while (index < chars.length && chars[index] != '\n') {
+                index++;
+            }
+            if (index + 1 < chars.length) {
+                bounds[size++] = index + 1;
+            }
+        }
+        bounds[size++] = chars.length;
+        return Arrays.copyOf(bounds, size);
+    }
+
+    /**
+     * The result of lexing tokens starting in [start, end), where first is the
+     * start of the first token and stop is where lexing stopped.
+     */
+    private record Chunk(TokenBuffer tokens, int first, int stop, LexException error) {
+
+        private static Chunk lex(char[] chars, int start, int end) {
+            var stream = new CharStream.Buffered(chars, start);
+            var lexer = new Lexer(stream);
+            var tokens = new TokenBuffer(stream, lexer.symbols());
+            try {
+                var stop = lexer.lexBuffer(tokens, end);
+                return new Chunk(tokens, tokens.size() != 0 ? tokens.start(0) : stop, stop, null);
+            } catch (LexException e) {
+                return new Chunk(tokens, tokens.size() != 0 ? tokens.start(0) : stream.index - stream.length, -1, e);
+            }
+        }
+
+        /**
+         * Appends this chunk's tokens to the buffer (see
+         * {@link TokenBuffer#addAll}), so symbol ids are the same as when
+         * lexing sequentially.
+         */
+        private void copyTo(TokenBuffer buffer) {
+            buffer.addAll(tokens);
+        }
+
+    }
+
+}
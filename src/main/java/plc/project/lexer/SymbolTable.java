@@ -0,0 +1,181 @@
+package plc.project.lexer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Interns identifier (and operator) literals into canonical String instances with small
+ * integer ids, so repeated identifiers share one String and can be compared
+ * by id (or reference) rather than with {@link String#equals}.
+ *
+ * <p>Keywords and the operators of our grammar are registered first and
+ * therefore have the same ids in every table, available as the constants
+ * below. The lexer also interns operators, so these ids act as token kinds
+ * (see {@link TokenBuffer#kind(int)}). They are registered using string
+ * literals, so the canonical instance of a keyword is the JVM-interned
+ * literal (e.g. {@code "LET"}) used throughout the parser.
+ *
+ * <p>Lookups are done directly against the input, so interning an existing
+ * symbol does not allocate. Tables are not thread-safe.
+ */
+public final class SymbolTable {
+
+    public static final int LET = 0;
+    public static final int DEF = 1;
+    public static final int IF = 2;
+    public static final int ELSE = 3;
+    public static final int FOR = 4;
+    public static final int IN = 5;
+    public static final int DO = 6;
+    public static final int END = 7;
+    public static final int RETURN = 8;
+    public static final int OBJECT = 9;
+    public static final int AND = 10;
+    public static final int OR = 11;
+    public static final int NIL = 12;
+    public static final int TRUE = 13;
+    public static final int FALSE = 14;
+    public static final int LEFT_PAREN = 15;
+    public static final int RIGHT_PAREN = 16;
+    public static final int COMMA = 17;
+    public static final int SEMICOLON = 18;
+    public static final int DOT = 19;
+    public static final int COLON = 20;
+    public static final int ASSIGN = 21;
+    public static final int PLUS = 22;
+    public static final int MINUS = 23;
+    public static final int STAR = 24;
+    public static final int SLASH = 25;
+    public static final int LESS = 26;
+    public static final int LESS_EQUAL = 27;
+    public static final int GREATER = 28;
+    public static final int GREATER_EQUAL = 29;
+    public static final int EQUAL = 30;
+    public static final int NOT_EQUAL = 31;
+
+    /**
+     * The number of predefined symbols, all of which have ids less than this.
+     */
+    public static final int PREDEFINED = 32;
+
+    private static final List<String> KEYWORDS = List.of(
+        "LET", "DEF", "IF", "ELSE", "FOR", "IN", "DO", "END", "RETURN",
+        "OBJECT", "AND", "OR", "NIL", "TRUE", "FALSE"
+    );
+
+    private static final List<String> OPERATORS = List.of(
+        "(", ")", ",", ";", ".", ":", "=", "+", "-", "*", "/",
+        "<", "<=", ">", ">=", "==", "!="
+    );
+
+    private String[] symbols = new String[64];
+    private int size = 0;
+    //Open addressing table of (id + 1), with 0 marking an empty slot.
+    private int[] slots = new int[128];
+
+    public SymbolTable() {
+        for (var keyword : KEYWORDS) {
+            intern(keyword);
+        }
+        for (var operator : OPERATORS) {
+            intern(operator);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the canonical instance of the symbol with the given id.
+     */
+    public String symbol(int id) {
+        Objects.checkIndex(id, size);
+        return symbols[id];
+    }
+
+    /**
+     * Returns the id of the given name, or -1 if it has not been interned.
+     */
+    public int find(String name) {
+        var mask = slots.length - 1;
+        for (int slot = name.hashCode() & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            var id = slots[slot] - 1;
+            if (symbols[id].equals(name)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of the given name, interning it if necessary.
+     */
+    public int intern(String name) {
+        var id = find(name);
+        return id != -1 ? id : add(name, name.hashCode());
+    }
+
+    /**
+     * Returns the id of the literal in [start, end) of the given input,
+     * interning it if necessary. The hash is that of the decoded literal
+     * (see {@link CharStream#hash}), so both intern methods agree for every
+     * input encoding.
+     */
+    int intern(CharStream chars, int start, int end) {
+        var hash = chars.hash(start, end);
+        var id = find(chars, start, end, hash);
+        return id != -1 ? id : add(chars.literal(start, end), hash);
+    }
+
+    /**
+     * Returns the id of the literal in [start, end) of the given input, or -1
+     * if it has not been interned.
+     */
+    int find(CharStream chars, int start, int end) {
+        return find(chars, start, end, chars.hash(start, end));
+    }
+
+    private int find(CharStream chars, int start, int end, int hash) {
+        var mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            var id = slots[slot] - 1;
+            if (chars.regionEquals(start, end, symbols[id])) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private int add(String name, int hash) {
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, 2 * size);
+        }
+        symbols[size] = name;
+        size++;
+        if (2 * size > slots.length) {
+            rehash();
+        } else {
+            insert(size - 1, hash);
+        }
+        return size - 1;
+    }
+
+    private void insert(int id, int hash) {
+        var mask = slots.length - 1;
+        var slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        for (int id = 0; id < size; id++) {
+            insert(id, symbols[id].hashCode());
+        }
+    }
+
+}
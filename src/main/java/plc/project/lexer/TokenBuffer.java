@@ -0,0 +1,530 @@
+package plc.project.lexer;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A compact, struct-of-arrays representation of a token sequence. Instead of
+ * a {@link Token} record and literal String per token, each token is stored
+ * as its type and the [start, end) offsets of its literal within the shared
+ * source input, with literals only created on demand.
+ *
+ * <p>Identifiers and operators are additionally interned in a
+ * {@link SymbolTable}, with {@link #literal(int)} returning the canonical
+ * instance. The symbol id of identifiers is available via
+ * {@link #symbol(int)}, while {@link #kind(int)} also includes operators and
+ * is comparable against the predefined keyword and operator ids, such as
+ * {@link SymbolTable#LET} or {@link SymbolTable#LESS_EQUAL}.
+ *
+ * <p>The payloads of string and character literals (the contents without
+ * quotes, with escapes decoded) are available via {@link #string(int)} and
+ * {@link #character(int)}. Escapes are decoded once by the lexer into a
+ * shared {@link LiteralPool}, while literals without escapes are viewed
+ * directly in the source input.
+ *
+ * <p>{@link #get(int)} and {@link #asList()} provide {@link Token} views for
+ * existing callers, while {@link #type(int)} and {@link #literalEquals(int,
+ * String)} allow inspecting tokens without any allocation.
+ *
+ * <p>A window buffer (see {@link #window()}) holds a sliding window over
+ * tokens pulled from an iterator, appending tokens and removing them from
+ * the front in place instead of creating a buffer for each window.
+ *
+ * <p>A buffer produced by {@link IncrementalLexer} is instead spliced from
+ * segments of the arrays of previous buffers, each with an offset delta, so
+ * the tokens before and after an edit are shared rather than copied (see
+ * {@link #splice}).
+ */
+public final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * The maximum number of segments of a spliced buffer, beyond which
+     * splicing copies the tokens into a new buffer instead.
+     */
+    static final int MAX_SEGMENTS = 64;
+
+    private final CharStream source;
+    private final SymbolTable symbols;
+    private LiteralPool literals;
+    private int[] types;
+    private int[] starts;
+    private int[] ends;
+    private int[] payloads; //symbol ids for identifiers/operators, literal ids for escaped strings/characters
+    private int size = 0;
+    private Segment[] segments = null; //null unless spliced
+    private int[] segmentStarts; //index of the first token of each segment, followed by size
+    private int segment = 0; //the segment of the last access, as a hint for the next
+    private boolean window = false;
+    private LineIndex lines;
+
+    /**
+     * The tokens [from, from + length) of another buffer's arrays, with
+     * offsets shifted by delta and literal ids referring to literals.
+     */
+    private record Segment(int[] types, int[] starts, int[] ends, int[] payloads, LiteralPool literals, int from, int length, int delta) {}
+
+    TokenBuffer(CharStream source, SymbolTable symbols) {
+        this(source, symbols, DEFAULT_CAPACITY);
+    }
+
+    TokenBuffer(CharStream source, SymbolTable symbols, LiteralPool literals) {
+        this(source, symbols, literals, DEFAULT_CAPACITY);
+    }
+
+    TokenBuffer(CharStream source, SymbolTable symbols, int capacity) {
+        this(source, symbols, new LiteralPool(), capacity);
+    }
+
+    TokenBuffer(CharStream source, SymbolTable symbols, LiteralPool literals, int capacity) {
+        this.source = source;
+        this.symbols = symbols;
+        this.literals = literals;
+        this.types = new int[Math.max(capacity, 1)];
+        this.starts = new int[types.length];
+        this.ends = new int[types.length];
+        this.payloads = new int[types.length];
+    }
+
+    /**
+     * Returns a buffer containing the given tokens, laying out their literals
+     * consecutively in a new source string. If tokens is already a view of a
+     * buffer (via {@link #asList()}), that buffer is returned directly.
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        if (tokens instanceof View view) {
+            return view.buffer();
+        }
+        var builder = new StringBuilder();
+        var offsets = new int[tokens.size() + 1];
+        for (int i = 0; i < tokens.size(); i++) {
+            builder.append(tokens.get(i).literal());
+            offsets[i + 1] = builder.length();
+        }
+        var symbols = new SymbolTable();
+        var buffer = new TokenBuffer(new CharStream.Buffered(builder.toString()), symbols, tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            var token = tokens.get(i);
+            var payload = switch (token.type()) {
+                case IDENTIFIER, OPERATOR -> symbols.intern(token.literal());
+                case CHARACTER, STRING -> buffer.literals.decode(buffer.source, offsets[i], offsets[i + 1]);
+                default -> -1;
+            };
+            buffer.add(token.type(), offsets[i], offsets[i + 1], payload);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns an empty window buffer, which tokens are appended to with
+     * {@link #append(Token)} and removed from with {@link #removeFirst(int)},
+     * such as for a parser pulling tokens from an iterator. Literals are laid
+     * out consecutively as in {@link #of(List)}, and the arrays, source and
+     * symbol table are reused as the window slides. Only the symbol table
+     * retains anything of removed tokens, namely their distinct identifiers.
+     */
+    public static TokenBuffer window() {
+        var buffer = new TokenBuffer(new CharStream.Buffered(""), new SymbolTable());
+        buffer.window = true;
+        return buffer;
+    }
+
+    /**
+     * Appends a token to a window buffer.
+     */
+    public void append(Token token) {
+        Preconditions.checkState(window, "Only window buffers can be appended to.");
+        var start = size != 0 ? ends[size - 1] : 0;
+        var end = start + token.literal().length();
+        ((CharStream.Buffered) source).append(token.literal());
+        var payload = switch (token.type()) {
+            case IDENTIFIER, OPERATOR -> symbols.intern(token.literal());
+            case CHARACTER, STRING -> literals.decode(source, start, end);
+            default -> -1;
+        };
+        add(token.type(), start, end, payload);
+        lines = null;
+    }
+
+    /**
+     * Removes the first count tokens of a window buffer, shifting the
+     * remaining tokens (and their literals) to the start.
+     */
+    public void removeFirst(int count) {
+        Preconditions.checkState(window, "Only window buffers can be removed from.");
+        Objects.checkFromToIndex(0, count, size);
+        var offset = count < size ? starts[count] : size != 0 ? ends[size - 1] : 0;
+        ((CharStream.Buffered) source).discard(offset);
+        var remaining = size - count;
+        System.arraycopy(types, count, types, 0, remaining);
+        System.arraycopy(payloads, count, payloads, 0, remaining);
+        var pool = literals;
+        for (int i = 0; i < remaining; i++) {
+            starts[i] = starts[count + i] - offset;
+            ends[i] = ends[count + i] - offset;
+            if (payloads[i] != -1 && kind(i) == -1) {
+                //Escaped literals are copied, as the pool is only ever appended to.
+                if (pool == literals) {
+                    pool = new LiteralPool();
+                }
+                payloads[i] = pool.copy(literals, payloads[i]);
+            }
+        }
+        if (pool == literals) {
+            pool.clear();
+        }
+        literals = pool;
+        size = remaining;
+        lines = null;
+    }
+
+    /**
+     * Appends a token, where payload is the symbol id of an identifier or
+     * operator, the
+     * id of the decoded payload of a string or character literal containing
+     * escapes, or -1.
+     */
+    void add(Token.Type type, int start, int end, int payload) {
+        ensureCapacity(size + 1);
+        types[size] = type.ordinal();
+        starts[size] = start;
+        ends[size] = end;
+        payloads[size] = payload;
+        size++;
+    }
+
+    /**
+     * Appends the tokens of other, remapping symbol ids from other's table.
+     * Symbols are interned in order of occurrence, so ids are the same as
+     * when lexing the tokens sequentially. Decoded literals are copied into
+     * this buffer's pool.
+     */
+    void addAll(TokenBuffer other) {
+        var remap = new int[other.symbols.size()];
+        Arrays.fill(remap, -1);
+        for (int i = 0; i < other.size; i++) {
+            var payload = other.payload(i);
+            if (payload != -1) {
+                var symbol = other.kind(i);
+                if (symbol == -1) {
+                    payload = literals.copy(other.literals(i), payload);
+                } else {
+                    if (remap[symbol] == -1) {
+                        remap[symbol] = symbols.intern(other.symbols.symbol(symbol));
+                    }
+                    payload = remap[symbol];
+                }
+            }
+            add(other.type(i), other.start(i), other.end(i), payload);
+        }
+    }
+
+    /**
+     * Returns the tokens of previous with the tokens [start, oldEnd) replaced
+     * by the tokens of relexed and the offsets of the following tokens
+     * shifted by delta, over the given source. Relexed must share the symbol
+     * table of previous, while its literal pool may differ.
+     *
+     * <p>The result references segments of the arrays of both buffers, so
+     * splicing only costs time proportional to the number of segments. Once
+     * there would be more than {@link #MAX_SEGMENTS}, the tokens are copied
+     * into a new buffer instead, with a new symbol table and literal pool
+     * containing only the symbols and literals still in use. This bounds the
+     * growth of both across many edits, but symbol ids are then no longer
+     * comparable with previous buffers.
+     */
+    static TokenBuffer splice(TokenBuffer previous, int start, int oldEnd, TokenBuffer relexed, int delta, CharStream source) {
+        Preconditions.checkArgument(relexed.symbols == previous.symbols && relexed.segments == null);
+        Objects.checkFromToIndex(start, oldEnd, previous.size);
+        var segments = new ArrayList<Segment>();
+        previous.addSegments(segments, 0, start, 0);
+        relexed.addSegments(segments, 0, relexed.size, 0);
+        previous.addSegments(segments, oldEnd, previous.size, delta);
+        var tokens = new TokenBuffer(source, previous.symbols, relexed.literals, 1);
+        tokens.segments = segments.toArray(Segment[]::new);
+        tokens.segmentStarts = new int[tokens.segments.length + 1];
+        for (int i = 0; i < tokens.segments.length; i++) {
+            tokens.segmentStarts[i + 1] = tokens.segmentStarts[i] + tokens.segments[i].length;
+        }
+        tokens.size = tokens.segmentStarts[tokens.segments.length];
+        if (tokens.segments.length > MAX_SEGMENTS) {
+            var compacted = new TokenBuffer(source, new SymbolTable(), new LiteralPool(), tokens.size);
+            compacted.addAll(tokens);
+            return compacted;
+        }
+        return tokens;
+    }
+
+    /**
+     * Adds the (non-empty) segments covering the tokens [from, to), with
+     * offsets shifted by delta.
+     */
+    private void addSegments(List<Segment> segments, int from, int to, int delta) {
+        if (from >= to) {
+            return;
+        } else if (this.segments == null) {
+            segments.add(new Segment(types, starts, ends, payloads, literals, from, to - from, delta));
+            return;
+        }
+        for (int i = locate(from); i < this.segments.length && segmentStarts[i] < to; i++) {
+            var segment = this.segments[i];
+            var start = Math.max(from, segmentStarts[i]);
+            var end = Math.min(to, segmentStarts[i + 1]);
+            var offset = segment.from + start - segmentStarts[i];
+            segments.add(new Segment(segment.types, segment.starts, segment.ends, segment.payloads, segment.literals, offset, end - start, segment.delta + delta));
+        }
+    }
+
+    /**
+     * Returns the segment containing the token index, which must be valid.
+     */
+    private int locate(int index) {
+        var segment = this.segment;
+        if (segmentStarts[segment] <= index && index < segmentStarts[segment + 1]) {
+            return segment;
+        }
+        var search = Arrays.binarySearch(segmentStarts, 0, segments.length, index);
+        segment = search >= 0 ? search : -search - 2;
+        this.segment = segment;
+        return segment;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            capacity = Math.max(capacity, 2 * types.length);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+    }
+
+    CharStream source() {
+        return source;
+    }
+
+    LiteralPool literals() {
+        return literals;
+    }
+
+    /**
+     * Returns the payload of the token, as described by {@link #add}.
+     */
+    int payload(int index) {
+        Objects.checkIndex(index, size);
+        return rawPayload(index);
+    }
+
+    /*
+     * The raw accessors below read the token's arrays (or its segment's,
+     * shifting offsets by the segment's delta) without checking the index.
+     */
+
+    private int rawType(int index) {
+        if (segments == null) {
+            return types[index];
+        }
+        var i = locate(index);
+        return segments[i].types[segments[i].from + index - segmentStarts[i]];
+    }
+
+    private int rawStart(int index) {
+        if (segments == null) {
+            return starts[index];
+        }
+        var i = locate(index);
+        return segments[i].starts[segments[i].from + index - segmentStarts[i]] + segments[i].delta;
+    }
+
+    private int rawEnd(int index) {
+        if (segments == null) {
+            return ends[index];
+        }
+        var i = locate(index);
+        return segments[i].ends[segments[i].from + index - segmentStarts[i]] + segments[i].delta;
+    }
+
+    private int rawPayload(int index) {
+        if (segments == null) {
+            return payloads[index];
+        }
+        var i = locate(index);
+        return segments[i].payloads[segments[i].from + index - segmentStarts[i]];
+    }
+
+    /**
+     * Returns the pool containing the decoded literal of the token.
+     */
+    private LiteralPool literals(int index) {
+        return segments == null ? literals : segments[locate(index)].literals;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Token.Type type(int index) {
+        Objects.checkIndex(index, size);
+        return TYPES[rawType(index)];
+    }
+
+    /**
+     * Returns the offset of the first input unit of the token's literal, which
+     * is a char index for string input and a byte offset for mapped files.
+     */
+    public int start(int index) {
+        Objects.checkIndex(index, size);
+        return rawStart(index);
+    }
+
+    /**
+     * Returns the offset following the last input unit of the token's literal.
+     */
+    public int end(int index) {
+        Objects.checkIndex(index, size);
+        return rawEnd(index);
+    }
+
+    /**
+     * Returns the line index of the source input, built on the first call,
+     * for mapping token offsets to lines and columns.
+     */
+    public LineIndex lines() {
+        if (lines == null) {
+            lines = new LineIndex(source);
+        }
+        return lines;
+    }
+
+    public SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the symbol id of an identifier token, or -1 for other tokens.
+     */
+    public int symbol(int index) {
+        Objects.checkIndex(index, size);
+        return rawType(index) == Token.Type.IDENTIFIER.ordinal() ? rawPayload(index) : -1;
+    }
+
+    /**
+     * Returns the symbol id of an identifier or operator token, or -1 for
+     * other tokens. Keywords and the operators of the grammar have the
+     * predefined ids of {@link SymbolTable}, so this identifies the kind of
+     * token with a single int comparison.
+     */
+    public int kind(int index) {
+        Objects.checkIndex(index, size);
+        var type = rawType(index);
+        return type == Token.Type.IDENTIFIER.ordinal() || type == Token.Type.OPERATOR.ordinal() ? rawPayload(index) : -1;
+    }
+
+    public String literal(int index) {
+        var kind = kind(index);
+        return kind != -1 ? symbols.symbol(kind) : source.literal(rawStart(index), rawEnd(index));
+    }
+
+    /**
+     * Returns true if the token's literal is equal to the given string,
+     * comparing against the source input directly.
+     */
+    public boolean literalEquals(int index, String literal) {
+        var kind = kind(index);
+        if (kind != -1) {
+            //Symbols are canonical, so keywords typically match by reference.
+            return symbols.symbol(kind).equals(literal);
+        }
+        return source.regionEquals(rawStart(index), rawEnd(index), literal);
+    }
+
+    /**
+     * Returns the value of an {@link Token.Type#INTEGER} or
+     * {@link Token.Type#DECIMAL} token, decoded from the source input. This is
+     * a {@link java.math.BigDecimal} for literals with a fractional part or
+     * exponent and a {@link java.math.BigInteger} otherwise.
+     */
+    public Number number(int index) {
+        var type = type(index);
+        Preconditions.checkArgument(type == Token.Type.INTEGER || type == Token.Type.DECIMAL, "Not a number token: %s", type);
+        return NumberLiteral.decode(source, rawStart(index), rawEnd(index));
+    }
+
+    /**
+     * Returns the payload of a {@link Token.Type#STRING} or
+     * {@link Token.Type#CHARACTER} token, excluding quotes and with escapes
+     * decoded. The result is a read-only view of either the source input (for
+     * literals without escapes) or the decoded payload, and is not copied.
+     */
+    public CharSequence string(int index) {
+        var type = type(index);
+        Preconditions.checkArgument(type == Token.Type.STRING || type == Token.Type.CHARACTER, "Not a string or character token: %s", type);
+        var payload = rawPayload(index);
+        if (payload != -1) {
+            return literals(index).get(payload);
+        }
+        return source.view(rawStart(index) + 1, rawEnd(index) - 1);
+    }
+
+    /**
+     * Returns the (decoded) character of a {@link Token.Type#CHARACTER} token.
+     */
+    public char character(int index) {
+        var type = type(index);
+        Preconditions.checkArgument(type == Token.Type.CHARACTER, "Not a character token: %s", type);
+        if (rawPayload(index) == -1 && source.at(rawStart(index) + 1) < 0x80) {
+            return source.at(rawStart(index) + 1);
+        }
+        var string = string(index);
+        Preconditions.checkState(string.length() == 1, "Not a single char: %s", string);
+        return string.charAt(0);
+    }
+
+    /**
+     * Returns a new {@link Token} for the token at the given index.
+     */
+    public Token get(int index) {
+        return new Token(type(index), literal(index));
+    }
+
+    /**
+     * Returns an unmodifiable list view of this buffer, creating {@link Token}s
+     * as they are accessed.
+     */
+    public List<Token> asList() {
+        return new View(this);
+    }
+
+    private static final class View extends AbstractList<Token> implements RandomAccess {
+
+        private final TokenBuffer buffer;
+
+        private View(TokenBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private TokenBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public Token get(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public int size() {
+            return buffer.size();
+        }
+
+    }
+
+}
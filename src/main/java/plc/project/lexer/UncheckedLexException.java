@@ -0,0 +1,25 @@
+package plc.project.lexer;
+
+import java.io.Serial;
+import java.util.Objects;
+
+/**
+ * Wraps a {@link LexException} thrown while lazily lexing tokens, such as via
+ * {@link Lexer#iterator()} or {@link Lexer#stream()}, where checked exceptions
+ * cannot be thrown directly.
+ */
+public final class UncheckedLexException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedLexException(LexException cause) {
+        super(Objects.requireNonNull(cause));
+    }
+
+    @Override
+    public LexException getCause() {
+        return (LexException) super.getCause();
+    }
+
+}
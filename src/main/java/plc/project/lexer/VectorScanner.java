@@ -0,0 +1,109 @@
+package plc.project.lexer;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Scans runs of characters belonging to a {@link CharClass}, such as
+ * whitespace, comment bodies and string bodies, many characters at a time.
+ *
+ * <p>Scans use the {@code jdk.incubator.vector} API when that module is
+ * enabled (e.g. {@code --add-modules jdk.incubator.vector}), comparing each
+ * vector of input against the listed characters of the class. Otherwise, or
+ * for classes without listed characters, scans fall back to a scalar loop.
+ * The vector API classes are only referenced from {@link Vectorized}, which
+ * is never loaded when the module is unavailable.
+ */
+final class VectorScanner {
+
+    static final boolean ENABLED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorScanner() {}
+
+    /**
+     * Returns the index of the first char in [from, to) that is not in the
+     * class, or to if all are.
+     */
+    static int scan(char[] buffer, int from, int to, CharClass cls) {
+        if (ENABLED && cls.listed() != null) {
+            return Vectorized.scan(buffer, from, to, cls);
+        }
+        return scalar(buffer, from, to, cls);
+    }
+
+    /**
+     * Returns the offset of the first byte in [from, to) that is not in the
+     * class, or to if all are. Non-ASCII bytes are members of negated
+     * classes only, consistent with {@link CharStream.Mapped}.
+     */
+    static int scan(MemorySegment segment, int from, int to, CharClass cls) {
+        if (ENABLED && cls.listed() != null) {
+            return Vectorized.scan(segment, from, to, cls);
+        }
+        return scalar(segment, from, to, cls);
+    }
+
+    static int scalar(char[] buffer, int from, int to, CharClass cls) {
+        var index = from;
+        while (index < to && cls.contains(buffer[index])) {
+            index++;
+        }
+        return index;
+    }
+
+    static int scalar(MemorySegment segment, int from, int to, CharClass cls) {
+        var index = from;
+        while (index < to && cls.contains((char) (segment.get(ValueLayout.JAVA_BYTE, index) & 0xFF))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static final class Vectorized {
+
+        private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+        private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+        private static int scan(char[] buffer, int from, int to, CharClass cls) {
+            var listed = cls.listed();
+            var index = from;
+            for (; index + CHARS.length() <= to; index += CHARS.length()) {
+                var vector = ShortVector.fromCharArray(CHARS, buffer, index);
+                VectorMask<Short> mask = vector.eq((short) listed[0]);
+                for (int i = 1; i < listed.length; i++) {
+                    mask = mask.or(vector.eq((short) listed[i]));
+                }
+                var stop = cls.isNegated() ? mask : mask.not();
+                if (stop.anyTrue()) {
+                    return index + stop.firstTrue();
+                }
+            }
+            return scalar(buffer, index, to, cls);
+        }
+
+        private static int scan(MemorySegment segment, int from, int to, CharClass cls) {
+            var listed = cls.listed();
+            var index = from;
+            for (; index + BYTES.length() <= to; index += BYTES.length()) {
+                var vector = ByteVector.fromMemorySegment(BYTES, segment, index, ByteOrder.nativeOrder());
+                VectorMask<Byte> mask = vector.eq((byte) listed[0]);
+                for (int i = 1; i < listed.length; i++) {
+                    mask = mask.or(vector.eq((byte) listed[i]));
+                }
+                var stop = cls.isNegated() ? mask : mask.not();
+                if (stop.anyTrue()) {
+                    return index + stop.firstTrue();
+                }
+            }
+            return scalar(segment, index, to, cls);
+        }
+
+    }
+
+}
@@ -0,0 +1,400 @@
+package plc.project.parser;
+
+import plc.project.lexer.SymbolTable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A compact, flat representation of ASTs, storing nodes in primitive arrays
+ * instead of records, lists and optionals. Each node is an int id with a
+ * {@link Kind} and a run of ints in a shared data array: child node ids,
+ * list lengths, and names interned in a {@link SymbolTable} (or -1 for
+ * empty optionals). Literal values are stored once in a side table.
+ *
+ * <p>Since {@link Ast} is sealed, nodes cannot be exposed as lightweight
+ * {@link Ast} implementations. Instead, {@link #get(int)} materializes the
+ * record subtree of a node on demand, which existing {@link Ast.Visitor}s can
+ * be applied to (see {@link #accept}), while {@link #kind(int)} and
+ * {@link #name(int)} allow inspecting nodes without materializing them.
+ *
+ * <p>Nodes are added bottom-up from records via {@link #add(Ast)}, including
+ * by {@link Parser#parseInto(AstArena)}, which adds each top-level statement
+ * as soon as it is parsed. The parser does not emit nodes into the arena
+ * directly, since its rule methods return the records shared by every parse
+ * mode; the records of a single statement are built and then flattened.
+ */
+public final class AstArena {
+
+    public enum Kind {
+        SOURCE, LET, DEF, IF, FOR, RETURN, EXPRESSION, ASSIGNMENT,
+        LITERAL, GROUP, BINARY, VARIABLE, PROPERTY, FUNCTION, METHOD, OBJECT
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final List<Object> values = new ArrayList<>();
+    private int[] kinds = new int[64];
+    private int[] offsets = new int[64];
+    private int size = 0;
+    private int[] data = new int[256];
+    private int length = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public Kind kind(int node) {
+        Objects.checkIndex(node, size);
+        return KINDS[kinds[node]];
+    }
+
+    /**
+     * Returns the name of a LET, DEF, FOR, VARIABLE, PROPERTY, FUNCTION,
+     * METHOD or (named) OBJECT node, the operator of a BINARY node, or null
+     * otherwise.
+     */
+    public String name(int node) {
+        var offset = offsets[node];
+        var symbol = switch (kind(node)) {
+            case LET, DEF, FOR, VARIABLE, FUNCTION, OBJECT, BINARY -> data[offset];
+            case PROPERTY, METHOD -> data[offset + 1];
+            default -> -1;
+        };
+        return symbol != -1 ? symbols.symbol(symbol) : null;
+    }
+
+    /**
+     * Applies the visitor to the materialized subtree of the node.
+     */
+    public <T, E extends Exception> T accept(Ast.Visitor<T, E> visitor, int node) throws E {
+        return visitor.visit(get(node));
+    }
+
+    /**
+     * Adds the subtree of the given node, returning the node's id. Nodes are
+     * added in post-order, so children have lower ids than their parents.
+     *
+     * <p>Like {@link Parser#parseIterative(String)}, this uses an explicit
+     * stack instead of recursion. Nodes are listed in pre-order with their
+     * children pushed left to right, which in reverse is the post-order, and
+     * each added node pops the ids of its children.
+     */
+    public int add(Ast ast) {
+        var nodes = new ArrayList<Ast>();
+        var counts = new IntStack();
+        var stack = new ArrayDeque<Ast>();
+        stack.push(ast);
+        while (!stack.isEmpty()) {
+            var node = stack.pop();
+            nodes.add(node);
+            counts.push(pushChildren(stack, node));
+        }
+        var ids = new IntStack();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            ids.push(add(nodes.get(i), ids.pop(counts.values[i])));
+        }
+        return ids.pop();
+    }
+
+    /**
+     * Pushes the children of the node from left to right, returning their
+     * count.
+     */
+    private static int pushChildren(ArrayDeque<Ast> stack, Ast ast) {
+        var size = stack.size();
+        switch (ast) {
+            case Ast.Source source -> source.statements().forEach(stack::push);
+            case Ast.Stmt.Let stmt -> stmt.value().ifPresent(stack::push);
+            case Ast.Stmt.Def stmt -> stmt.body().forEach(stack::push);
+            case Ast.Stmt.If stmt -> {
+                stack.push(stmt.condition());
+                stmt.thenBody().forEach(stack::push);
+                stmt.elseBody().forEach(stack::push);
+            }
+            case Ast.Stmt.For stmt -> {
+                stack.push(stmt.expression());
+                stmt.body().forEach(stack::push);
+            }
+            case Ast.Stmt.Return stmt -> stmt.value().ifPresent(stack::push);
+            case Ast.Stmt.Expression stmt -> stack.push(stmt.expression());
+            case Ast.Stmt.Assignment stmt -> {
+                stack.push(stmt.expression());
+                stack.push(stmt.value());
+            }
+            case Ast.Expr.Literal expr -> {}
+            case Ast.Expr.Group expr -> stack.push(expr.expression());
+            case Ast.Expr.Binary expr -> {
+                stack.push(expr.left());
+                stack.push(expr.right());
+            }
+            case Ast.Expr.Variable expr -> {}
+            case Ast.Expr.Property expr -> stack.push(expr.receiver());
+            case Ast.Expr.Function expr -> expr.arguments().forEach(stack::push);
+            case Ast.Expr.Method expr -> {
+                stack.push(expr.receiver());
+                expr.arguments().forEach(stack::push);
+            }
+            case Ast.Expr.ObjectExpr expr -> {
+                expr.fields().forEach(stack::push);
+                expr.methods().forEach(stack::push);
+            }
+        }
+        return stack.size() - size;
+    }
+
+    /**
+     * Adds a single node, given the ids of its (previously added) children
+     * in order.
+     */
+    private int add(Ast ast, int[] children) {
+        var length = children.length;
+        return switch (ast) {
+            case Ast.Source source -> node(Kind.SOURCE, new int[0], children);
+            case Ast.Stmt.Let stmt -> node(Kind.LET, symbol(stmt.name()), symbol(stmt.type()), length != 0 ? children[0] : -1);
+            case Ast.Stmt.Def stmt -> {
+                var header = new int[2 * stmt.parameters().size() + 3];
+                header[0] = symbol(stmt.name());
+                header[1] = stmt.parameters().size();
+                for (int i = 0; i < stmt.parameters().size(); i++) {
+                    header[2 + 2 * i] = symbol(stmt.parameters().get(i));
+                    header[3 + 2 * i] = symbol(stmt.parameterTypes().get(i));
+                }
+                header[header.length - 1] = symbol(stmt.returnType());
+                yield node(Kind.DEF, header, children);
+            }
+            case Ast.Stmt.If stmt -> {
+                var split = 1 + stmt.thenBody().size();
+                yield node(Kind.IF, new int[] {children[0]}, Arrays.copyOfRange(children, 1, split), Arrays.copyOfRange(children, split, length));
+            }
+            case Ast.Stmt.For stmt -> node(Kind.FOR, new int[] {symbol(stmt.name()), children[0]}, Arrays.copyOfRange(children, 1, length));
+            case Ast.Stmt.Return stmt -> node(Kind.RETURN, length != 0 ? children[0] : -1);
+            case Ast.Stmt.Expression stmt -> node(Kind.EXPRESSION, children[0]);
+            case Ast.Stmt.Assignment stmt -> node(Kind.ASSIGNMENT, children[0], children[1]);
+            case Ast.Expr.Literal expr -> {
+                values.add(expr.value());
+                yield node(Kind.LITERAL, values.size() - 1);
+            }
+            case Ast.Expr.Group expr -> node(Kind.GROUP, children[0]);
+            case Ast.Expr.Binary expr -> node(Kind.BINARY, symbol(expr.operator()), children[0], children[1]);
+            case Ast.Expr.Variable expr -> node(Kind.VARIABLE, symbol(expr.name()));
+            case Ast.Expr.Property expr -> node(Kind.PROPERTY, children[0], symbol(expr.name()));
+            case Ast.Expr.Function expr -> node(Kind.FUNCTION, new int[] {symbol(expr.name())}, children);
+            case Ast.Expr.Method expr -> node(Kind.METHOD, new int[] {children[0], symbol(expr.name())}, Arrays.copyOfRange(children, 1, length));
+            case Ast.Expr.ObjectExpr expr -> {
+                var split = expr.fields().size();
+                yield node(Kind.OBJECT, new int[] {symbol(expr.name())}, Arrays.copyOfRange(children, 0, split), Arrays.copyOfRange(children, split, length));
+            }
+        };
+    }
+
+    /**
+     * Adds a SOURCE node of the given (previously added) statement nodes.
+     */
+    int addSource(int[] statements) {
+        return node(Kind.SOURCE, new int[0], statements);
+    }
+
+    private int symbol(String name) {
+        return name != null ? symbols.intern(name) : -1;
+    }
+
+    private int symbol(Optional<String> name) {
+        return symbol(name.orElse(null));
+    }
+
+    private int node(Kind kind, int... fixed) {
+        return node(kind, fixed, new int[0][]);
+    }
+
+    /**
+     * Appends a node, whose data is the fixed ints followed by each list as
+     * its length and elements.
+     */
+    private int node(Kind kind, int[] fixed, int[]... lists) {
+        if (size == kinds.length) {
+            kinds = Arrays.copyOf(kinds, 2 * size);
+            offsets = Arrays.copyOf(offsets, 2 * size);
+        }
+        var required = length + fixed.length;
+        for (var list : lists) {
+            required += 1 + list.length;
+        }
+        if (required > data.length) {
+            data = Arrays.copyOf(data, Math.max(required, 2 * data.length));
+        }
+        kinds[size] = kind.ordinal();
+        offsets[size] = length;
+        System.arraycopy(fixed, 0, data, length, fixed.length);
+        length += fixed.length;
+        for (var list : lists) {
+            data[length++] = list.length;
+            System.arraycopy(list, 0, data, length, list.length);
+            length += list.length;
+        }
+        return size++;
+    }
+
+    /**
+     * Materializes the record subtree of the node, equal to the AST it was
+     * added from. As with {@link #add(Ast)}, this uses an explicit stack:
+     * each node is materialized after its children, which it pops.
+     */
+    public Ast get(int node) {
+        Objects.checkIndex(node, size);
+        var nodes = new IntStack();
+        var counts = new IntStack();
+        var stack = new IntStack();
+        stack.push(node);
+        while (stack.size != 0) {
+            var next = stack.pop();
+            var children = children(next);
+            nodes.push(next);
+            counts.push(children.length);
+            for (var child : children) {
+                stack.push(child);
+            }
+        }
+        var asts = new ArrayList<Ast>();
+        for (int i = nodes.size - 1; i >= 0; i--) {
+            var count = counts.values[i];
+            var children = asts.subList(asts.size() - count, asts.size());
+            var ast = get(nodes.values[i], children.toArray(new Ast[0]));
+            children.clear();
+            asts.add(ast);
+        }
+        return asts.getFirst();
+    }
+
+    /**
+     * Returns the ids of the node's children in order.
+     */
+    private int[] children(int node) {
+        var offset = offsets[node];
+        return switch (kind(node)) {
+            case SOURCE -> list(offset);
+            case LET -> data[offset + 2] != -1 ? new int[] {data[offset + 2]} : new int[0];
+            case DEF -> list(offset + 3 + 2 * data[offset + 1]);
+            case IF -> concat(new int[] {data[offset]}, list(offset + 1), list(offset + 2 + data[offset + 1]));
+            case FOR -> concat(new int[] {data[offset + 1]}, list(offset + 2));
+            case RETURN -> data[offset] != -1 ? new int[] {data[offset]} : new int[0];
+            case EXPRESSION, GROUP, PROPERTY -> new int[] {data[offset]};
+            case ASSIGNMENT -> new int[] {data[offset], data[offset + 1]};
+            case BINARY -> new int[] {data[offset + 1], data[offset + 2]};
+            case LITERAL, VARIABLE -> new int[0];
+            case FUNCTION -> list(offset + 1);
+            case METHOD -> concat(new int[] {data[offset]}, list(offset + 2));
+            case OBJECT -> concat(list(offset + 1), list(offset + 2 + data[offset + 1]));
+        };
+    }
+
+    /**
+     * Materializes a single node, given the materialized subtrees of its
+     * children in order.
+     */
+    private Ast get(int node, Ast[] children) {
+        var offset = offsets[node];
+        var length = children.length;
+        return switch (kind(node)) {
+            case SOURCE -> new Ast.Source(list(children, 0, length, Ast.Stmt.class));
+            case LET -> new Ast.Stmt.Let(string(offset), optional(offset + 1), length != 0 ? Optional.of((Ast.Expr) children[0]) : Optional.empty());
+            case DEF -> {
+                var count = data[offset + 1];
+                var parameters = new ArrayList<String>(count);
+                var parameterTypes = new ArrayList<Optional<String>>(count);
+                for (int i = 0; i < count; i++) {
+                    parameters.add(string(offset + 2 + 2 * i));
+                    parameterTypes.add(optional(offset + 3 + 2 * i));
+                }
+                yield new Ast.Stmt.Def(string(offset), parameters, parameterTypes, optional(offset + 2 + 2 * count), list(children, 0, length, Ast.Stmt.class));
+            }
+            case IF -> {
+                var split = 1 + data[offset + 1];
+                yield new Ast.Stmt.If((Ast.Expr) children[0], list(children, 1, split, Ast.Stmt.class), list(children, split, length, Ast.Stmt.class));
+            }
+            case FOR -> new Ast.Stmt.For(string(offset), (Ast.Expr) children[0], list(children, 1, length, Ast.Stmt.class));
+            case RETURN -> new Ast.Stmt.Return(length != 0 ? Optional.of((Ast.Expr) children[0]) : Optional.empty());
+            case EXPRESSION -> new Ast.Stmt.Expression((Ast.Expr) children[0]);
+            case ASSIGNMENT -> new Ast.Stmt.Assignment((Ast.Expr) children[0], (Ast.Expr) children[1]);
+            case LITERAL -> new Ast.Expr.Literal(values.get(data[offset]));
+            case GROUP -> new Ast.Expr.Group((Ast.Expr) children[0]);
+            case BINARY -> new Ast.Expr.Binary(string(offset), (Ast.Expr) children[0], (Ast.Expr) children[1]);
+            case VARIABLE -> new Ast.Expr.Variable(string(offset));
+            case PROPERTY -> new Ast.Expr.Property((Ast.Expr) children[0], string(offset + 1));
+            case FUNCTION -> new Ast.Expr.Function(string(offset), list(children, 0, length, Ast.Expr.class));
+            case METHOD -> new Ast.Expr.Method((Ast.Expr) children[0], string(offset + 1), list(children, 1, length, Ast.Expr.class));
+            case OBJECT -> {
+                var split = data[offset + 1];
+                yield new Ast.Expr.ObjectExpr(optional(offset), list(children, 0, split, Ast.Stmt.Let.class), list(children, split, length, Ast.Stmt.Def.class));
+            }
+        };
+    }
+
+    private String string(int offset) {
+        return symbols.symbol(data[offset]);
+    }
+
+    private Optional<String> optional(int offset) {
+        return data[offset] != -1 ? Optional.of(string(offset)) : Optional.empty();
+    }
+
+    /**
+     * Returns the elements of the list at the offset.
+     */
+    private int[] list(int offset) {
+        return Arrays.copyOfRange(data, offset + 1, offset + 1 + data[offset]);
+    }
+
+    private static int[] concat(int[]... lists) {
+        var result = new int[Arrays.stream(lists).mapToInt(list -> list.length).sum()];
+        var length = 0;
+        for (var list : lists) {
+            System.arraycopy(list, 0, result, length, list.length);
+            length += list.length;
+        }
+        return result;
+    }
+
+    private static <T extends Ast> List<T> list(Ast[] children, int start, int end, Class<T> type) {
+        var list = new ArrayList<T>(end - start);
+        for (int i = start; i < end; i++) {
+            list.add(type.cast(children[i]));
+        }
+        return list;
+    }
+
+    /**
+     * A growable stack of ints, avoiding boxing.
+     */
+    private static final class IntStack {
+
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        private int pop() {
+            return values[--size];
+        }
+
+        /**
+         * Pops the top count values, returned in the order they were pushed.
+         */
+        private int[] pop(int count) {
+            size -= count;
+            return Arrays.copyOfRange(values, size, size + count);
+        }
+
+    }
+
+}
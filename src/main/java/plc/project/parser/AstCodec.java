@@ -0,0 +1,594 @@
+package plc.project.parser;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A compact binary encoding of {@link Ast} trees, for storing parsed sources
+ * (e.g. as {@code .ast} files) and loading them without lexing and parsing.
+ *
+ * <p>An encoding starts with {@link #MAGIC} and a version, followed by a
+ * table of all distinct strings (names, operators and string literals) and
+ * then the tree in pre-order. Each node is a tag for its type followed by
+ * its components other than child nodes, where strings are indexes into the
+ * table, optional strings are an index offset by one (with zero for empty),
+ * and child nodes are only counted (as a list's length, or one or zero for an
+ * optional). The node's children then follow in order. All ints are unsigned
+ * LEB128 varints, with signed values zigzag encoded.
+ *
+ * <p>Since a node's children come after all of its other components, both
+ * directions use an explicit stack instead of recursion, so like
+ * {@link Parser#parseIterative(String)} nesting depth is only limited by the
+ * heap.
+ *
+ * <p>{@link Ast.Expr.Literal} values may be null, {@link Boolean},
+ * {@link BigInteger}, {@link BigDecimal}, {@link Character} or
+ * {@link String}, which is every value produced by {@link Parser}. Numbers
+ * whose (unscaled) value fits in a long are stored as varints, and others as
+ * their two's complement bytes.
+ *
+ * <p>{@link #read(Path)} memory-maps the file, decoding it in place.
+ */
+public final class AstCodec {
+
+    public static final int MAGIC = 0x41535400; // "AST\0"
+    public static final int VERSION = 2;
+
+    // Node tags, which are part of the format and must not be renumbered
+    // without changing the version.
+    private static final int SOURCE = 0;
+    private static final int LET = 1;
+    private static final int DEF = 2;
+    private static final int IF = 3;
+    private static final int FOR = 4;
+    private static final int RETURN = 5;
+    private static final int EXPRESSION = 6;
+    private static final int ASSIGNMENT = 7;
+    private static final int LITERAL = 8;
+    private static final int GROUP = 9;
+    private static final int BINARY = 10;
+    private static final int VARIABLE = 11;
+    private static final int PROPERTY = 12;
+    private static final int FUNCTION = 13;
+    private static final int METHOD = 14;
+    private static final int OBJECT = 15;
+
+    // Literal tags, likewise.
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INTEGER = 3;
+    private static final int BIG_INTEGER = 4;
+    private static final int DECIMAL = 5;
+    private static final int BIG_DECIMAL = 6;
+    private static final int CHARACTER = 7;
+    private static final int STRING = 8;
+
+    private AstCodec() {}
+
+    public static byte[] encode(Ast ast) {
+        var body = new Encoder();
+        body.tree(ast);
+        var output = new Encoder();
+        output.int32(MAGIC);
+        output.varint(VERSION);
+        output.varint(body.strings.size());
+        for (var string : body.strings.keySet()) {
+            var bytes = string.getBytes(StandardCharsets.UTF_8);
+            output.varint(bytes.length);
+            output.bytes(bytes);
+        }
+        output.bytes(Arrays.copyOf(body.buffer, body.size));
+        return Arrays.copyOf(output.buffer, output.size);
+    }
+
+    /**
+     * Decodes an AST from the buffer's position, which is advanced past it.
+     */
+    public static Ast decode(ByteBuffer buffer) {
+        try {
+            Preconditions.checkArgument(buffer.getInt() == MAGIC, "Not an encoded AST.");
+            var decoder = new Decoder(buffer);
+            var version = decoder.varint();
+            Preconditions.checkArgument(version == VERSION, "Unsupported version: %s", version);
+            decoder.strings = new String[decoder.count()];
+            for (int i = 0; i < decoder.strings.length; i++) {
+                decoder.strings[i] = new String(decoder.byteArray(), StandardCharsets.UTF_8);
+            }
+            return decoder.tree();
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated AST encoding.", e);
+        }
+    }
+
+    public static void write(Ast ast, Path path) throws IOException {
+        Files.write(path, encode(ast));
+    }
+
+    public static Ast read(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static final class Encoder {
+
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private byte[] buffer = new byte[256];
+        private int size = 0;
+
+        private void tree(Ast root) {
+            var stack = new ArrayDeque<Ast>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                var children = node(stack.pop());
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+            }
+        }
+
+        /**
+         * Writes the tag and components of the node, returning its children.
+         */
+        private List<? extends Ast> node(Ast ast) {
+            varint(tag(ast));
+            return switch (ast) {
+                case Ast.Source source -> {
+                    varint(source.statements().size());
+                    yield source.statements();
+                }
+                case Ast.Stmt.Let stmt -> {
+                    string(stmt.name());
+                    optionalString(stmt.type());
+                    varint(stmt.value().isPresent() ? 1 : 0);
+                    yield stmt.value().stream().toList();
+                }
+                case Ast.Stmt.Def stmt -> {
+                    string(stmt.name());
+                    varint(stmt.parameters().size());
+                    for (int i = 0; i < stmt.parameters().size(); i++) {
+                        string(stmt.parameters().get(i));
+                        optionalString(stmt.parameterTypes().get(i));
+                    }
+                    optionalString(stmt.returnType());
+                    varint(stmt.body().size());
+                    yield stmt.body();
+                }
+                case Ast.Stmt.If stmt -> {
+                    varint(stmt.thenBody().size());
+                    varint(stmt.elseBody().size());
+                    yield concat(List.of(stmt.condition()), stmt.thenBody(), stmt.elseBody());
+                }
+                case Ast.Stmt.For stmt -> {
+                    string(stmt.name());
+                    varint(stmt.body().size());
+                    yield concat(List.of(stmt.expression()), stmt.body());
+                }
+                case Ast.Stmt.Return stmt -> {
+                    varint(stmt.value().isPresent() ? 1 : 0);
+                    yield stmt.value().stream().toList();
+                }
+                case Ast.Stmt.Expression stmt -> List.of(stmt.expression());
+                case Ast.Stmt.Assignment stmt -> List.of(stmt.expression(), stmt.value());
+                case Ast.Expr.Literal expr -> {
+                    literal(expr.value());
+                    yield List.of();
+                }
+                case Ast.Expr.Group expr -> List.of(expr.expression());
+                case Ast.Expr.Binary expr -> {
+                    string(expr.operator());
+                    yield List.of(expr.left(), expr.right());
+                }
+                case Ast.Expr.Variable expr -> {
+                    string(expr.name());
+                    yield List.of();
+                }
+                case Ast.Expr.Property expr -> {
+                    string(expr.name());
+                    yield List.of(expr.receiver());
+                }
+                case Ast.Expr.Function expr -> {
+                    string(expr.name());
+                    varint(expr.arguments().size());
+                    yield expr.arguments();
+                }
+                case Ast.Expr.Method expr -> {
+                    string(expr.name());
+                    varint(expr.arguments().size());
+                    yield concat(List.of(expr.receiver()), expr.arguments());
+                }
+                case Ast.Expr.ObjectExpr expr -> {
+                    optionalString(expr.name());
+                    varint(expr.fields().size());
+                    varint(expr.methods().size());
+                    yield concat(expr.fields(), expr.methods());
+                }
+            };
+        }
+
+        private void literal(Object value) {
+            switch (value) {
+                case null -> varint(NULL);
+                case Boolean bool -> varint(bool ? TRUE : FALSE);
+                case BigInteger integer -> {
+                    if (integer.bitLength() < Long.SIZE) {
+                        varint(INTEGER);
+                        varlong(zigzag(integer.longValue()));
+                    } else {
+                        varint(BIG_INTEGER);
+                        byteArray(integer.toByteArray());
+                    }
+                }
+                case BigDecimal decimal -> {
+                    var unscaled = decimal.unscaledValue();
+                    if (unscaled.bitLength() < Long.SIZE) {
+                        varint(DECIMAL);
+                        varlong(zigzag(decimal.scale()));
+                        varlong(zigzag(unscaled.longValue()));
+                    } else {
+                        varint(BIG_DECIMAL);
+                        varlong(zigzag(decimal.scale()));
+                        byteArray(unscaled.toByteArray());
+                    }
+                }
+                case Character character -> {
+                    varint(CHARACTER);
+                    varint(character);
+                }
+                case String string -> {
+                    varint(STRING);
+                    string(string);
+                }
+                default -> throw new IllegalArgumentException("Unsupported literal value: " + value.getClass().getName());
+            }
+        }
+
+        private void string(String string) {
+            varint(strings.computeIfAbsent(string, s -> strings.size()));
+        }
+
+        private void optionalString(Optional<String> string) {
+            varint(string.map(s -> strings.computeIfAbsent(s, k -> strings.size()) + 1).orElse(0));
+        }
+
+        private void byteArray(byte[] bytes) {
+            varint(bytes.length);
+            bytes(bytes);
+        }
+
+        private void varint(int value) {
+            varlong(Integer.toUnsignedLong(value));
+        }
+
+        private void varlong(long value) {
+            ensureCapacity(size + 10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void int32(int value) {
+            ensureCapacity(size + 4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void bytes(byte[] bytes) {
+            ensureCapacity(size + bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, 2 * buffer.length));
+            }
+        }
+
+        private static long zigzag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        @SafeVarargs
+        private static List<Ast> concat(List<? extends Ast>... lists) {
+            var result = new ArrayList<Ast>();
+            for (var list : lists) {
+                result.addAll(list);
+            }
+            return result;
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+        private String[] strings;
+        /**
+         * The number of children of the frames on the stack which have not
+         * been started. Each takes at least one byte, so this is bounded by
+         * the bytes remaining, which bounds the size of all frames.
+         */
+        private long pending = 0;
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        private Ast tree() {
+            var stack = new ArrayDeque<Frame>();
+            pending = 1;
+            while (true) {
+                pending--;
+                stack.push(frame());
+                while (stack.peek().size == stack.peek().children.length) {
+                    var ast = stack.pop().build();
+                    if (stack.isEmpty()) {
+                        return ast;
+                    }
+                    var parent = stack.peek();
+                    parent.children[parent.size++] = ast;
+                }
+            }
+        }
+
+        /**
+         * Reads the tag and components of a node, returning a frame for its
+         * children.
+         */
+        private Frame frame() {
+            var tag = varint();
+            var frame = new Frame(tag);
+            return switch (tag) {
+                case SOURCE -> children(frame, count());
+                case LET -> {
+                    frame.name = string();
+                    frame.optional = optionalString();
+                    yield children(frame, flag());
+                }
+                case DEF -> {
+                    var name = string();
+                    var count = count();
+                    var parameters = new ArrayList<String>(count);
+                    var parameterTypes = new ArrayList<Optional<String>>(count);
+                    for (int i = 0; i < count; i++) {
+                        parameters.add(string());
+                        parameterTypes.add(optionalString());
+                    }
+                    frame.value = new Grammar.DefHeader(name, parameters, parameterTypes, optionalString());
+                    yield children(frame, count());
+                }
+                case IF -> {
+                    frame.split = count();
+                    yield children(frame, 1L + frame.split + count());
+                }
+                case FOR -> {
+                    frame.name = string();
+                    yield children(frame, 1L + count());
+                }
+                case RETURN -> children(frame, flag());
+                case EXPRESSION, GROUP -> children(frame, 1);
+                case ASSIGNMENT -> children(frame, 2);
+                case LITERAL -> {
+                    frame.value = literal();
+                    yield children(frame, 0);
+                }
+                case BINARY -> {
+                    frame.name = string();
+                    yield children(frame, 2);
+                }
+                case VARIABLE -> {
+                    frame.name = string();
+                    yield children(frame, 0);
+                }
+                case PROPERTY -> {
+                    frame.name = string();
+                    yield children(frame, 1);
+                }
+                case FUNCTION -> {
+                    frame.name = string();
+                    yield children(frame, count());
+                }
+                case METHOD -> {
+                    frame.name = string();
+                    yield children(frame, 1L + count());
+                }
+                case OBJECT -> {
+                    frame.optional = optionalString();
+                    frame.split = count();
+                    yield children(frame, (long) frame.split + count());
+                }
+                default -> throw new IllegalArgumentException("Invalid node tag: " + tag);
+            };
+        }
+
+        private Frame children(Frame frame, long count) {
+            pending += count;
+            Preconditions.checkArgument(pending <= buffer.remaining(), "Invalid count: %s", count);
+            frame.children = new Ast[(int) count];
+            return frame;
+        }
+
+        private int flag() {
+            var flag = varint();
+            Preconditions.checkArgument(flag <= 1, "Invalid optional: %s", flag);
+            return flag;
+        }
+
+        private Object literal() {
+            return switch (varint()) {
+                case NULL -> null;
+                case TRUE -> true;
+                case FALSE -> false;
+                case INTEGER -> BigInteger.valueOf(unzigzag(varlong()));
+                case BIG_INTEGER -> new BigInteger(byteArray());
+                case DECIMAL -> {
+                    var scale = (int) unzigzag(varlong());
+                    yield BigDecimal.valueOf(unzigzag(varlong()), scale);
+                }
+                case BIG_DECIMAL -> {
+                    var scale = (int) unzigzag(varlong());
+                    yield new BigDecimal(new BigInteger(byteArray()), scale);
+                }
+                case CHARACTER -> (char) varint();
+                case STRING -> string();
+                default -> throw new IllegalArgumentException("Invalid literal tag.");
+            };
+        }
+
+        private String string() {
+            var index = varint();
+            Preconditions.checkArgument(index < strings.length, "Invalid string index: %s", index);
+            return strings[index];
+        }
+
+        private Optional<String> optionalString() {
+            var index = varint();
+            Preconditions.checkArgument(index <= strings.length, "Invalid string index: %s", index - 1);
+            return index != 0 ? Optional.of(strings[index - 1]) : Optional.empty();
+        }
+
+        private byte[] byteArray() {
+            var bytes = new byte[count()];
+            buffer.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Reads the length of a table, list or byte array. Each element takes
+         * at least one byte, so longer lengths are rejected before they are
+         * allocated.
+         */
+        private int count() {
+            var count = varint();
+            Preconditions.checkArgument(count <= buffer.remaining(), "Invalid count: %s", count);
+            return count;
+        }
+
+        private int varint() {
+            var value = varlong();
+            Preconditions.checkArgument(value >= 0 && value <= Integer.MAX_VALUE, "Invalid varint: %s", value);
+            return (int) value;
+        }
+
+        private long varlong() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                var b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Invalid varint.");
+        }
+
+        private static long unzigzag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+    }
+
+    /**
+     * A decoded node whose children are being decoded, with the components
+     * read by {@link Decoder#frame()}.
+     */
+    private static final class Frame {
+
+        private final int tag;
+        private Ast[] children;
+        private int size = 0;
+        private String name;
+        private Optional<String> optional;
+        private Object value;
+        private int split;
+
+        private Frame(int tag) {
+            this.tag = tag;
+        }
+
+        private Ast build() {
+            var length = children.length;
+            return switch (tag) {
+                case SOURCE -> new Ast.Source(children(0, length, Ast.Stmt.class));
+                case LET -> new Ast.Stmt.Let(name, optional, length != 0 ? Optional.of(child(0, Ast.Expr.class)) : Optional.empty());
+                case DEF -> {
+                    var header = (Grammar.DefHeader) value;
+                    yield new Ast.Stmt.Def(header.name(), header.parameters(), header.parameterTypes(), header.returnType(), children(0, length, Ast.Stmt.class));
+                }
+                case IF -> new Ast.Stmt.If(child(0, Ast.Expr.class), children(1, 1 + split, Ast.Stmt.class), children(1 + split, length, Ast.Stmt.class));
+                case FOR -> new Ast.Stmt.For(name, child(0, Ast.Expr.class), children(1, length, Ast.Stmt.class));
+                case RETURN -> new Ast.Stmt.Return(length != 0 ? Optional.of(child(0, Ast.Expr.class)) : Optional.empty());
+                case EXPRESSION -> new Ast.Stmt.Expression(child(0, Ast.Expr.class));
+                case ASSIGNMENT -> new Ast.Stmt.Assignment(child(0, Ast.Expr.class), child(1, Ast.Expr.class));
+                case LITERAL -> new Ast.Expr.Literal(value);
+                case GROUP -> new Ast.Expr.Group(child(0, Ast.Expr.class));
+                case BINARY -> new Ast.Expr.Binary(name, child(0, Ast.Expr.class), child(1, Ast.Expr.class));
+                case VARIABLE -> new Ast.Expr.Variable(name);
+                case PROPERTY -> new Ast.Expr.Property(child(0, Ast.Expr.class), name);
+                case FUNCTION -> new Ast.Expr.Function(name, children(0, length, Ast.Expr.class));
+                case METHOD -> new Ast.Expr.Method(child(0, Ast.Expr.class), name, children(1, length, Ast.Expr.class));
+                case OBJECT -> new Ast.Expr.ObjectExpr(optional, children(0, split, Ast.Stmt.Let.class), children(split, length, Ast.Stmt.Def.class));
+                default -> throw new AssertionError(tag);
+            };
+        }
+
+        private <T extends Ast> T child(int index, Class<T> type) {
+            var ast = children[index];
+            Preconditions.checkArgument(type.isInstance(ast), "Expected %s, found %s.", type.getSimpleName(), ast.getClass().getSimpleName());
+            return type.cast(ast);
+        }
+
+        private <T extends Ast> List<T> children(int start, int end, Class<T> type) {
+            var list = new ArrayList<T>(end - start);
+            for (int i = start; i < end; i++) {
+                list.add(child(i, type));
+            }
+            return list;
+        }
+
+    }
+
+    private static int tag(Ast ast) {
+        return switch (ast) {
+            case Ast.Source source -> SOURCE;
+            case Ast.Stmt.Let stmt -> LET;
+            case Ast.Stmt.Def stmt -> DEF;
+            case Ast.Stmt.If stmt -> IF;
+            case Ast.Stmt.For stmt -> FOR;
+            case Ast.Stmt.Return stmt -> RETURN;
+            case Ast.Stmt.Expression stmt -> EXPRESSION;
+            case Ast.Stmt.Assignment stmt -> ASSIGNMENT;
+            case Ast.Expr.Literal expr -> LITERAL;
+            case Ast.Expr.Group expr -> GROUP;
+            case Ast.Expr.Binary expr -> BINARY;
+            case Ast.Expr.Variable expr -> VARIABLE;
+            case Ast.Expr.Property expr -> PROPERTY;
+            case Ast.Expr.Function expr -> FUNCTION;
+            case Ast.Expr.Method expr -> METHOD;
+            case Ast.Expr.ObjectExpr expr -> OBJECT;
+        };
+    }
+
+}
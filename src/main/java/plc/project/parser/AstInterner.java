@@ -0,0 +1,216 @@
+package plc.project.parser;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Hash-conses {@link Ast} nodes, returning a canonical instance for each
+ * structurally equal node so that repeated subtrees are shared. A parser
+ * created with an interner (see {@link Parser#Parser(plc.project.lexer.TokenBuffer,
+ * AstInterner)}) interns every statement and expression it creates.
+ *
+ * <p>Nodes are interned bottom-up, so the children of a node being interned
+ * are already canonical. Nodes are therefore hashed and compared shallowly,
+ * with child nodes compared by identity and all other components (names,
+ * literal values) by equality, making interning constant time per node
+ * instead of proportional to its subtree. Likewise, the record
+ * {@code equals} of canonical nodes short-circuits on identical children.
+ *
+ * <p>The table only holds weak references, so canonical nodes which are no
+ * longer referenced by any AST are collected. It is split into independently
+ * locked segments, so an interner may be shared between parsers on
+ * different threads.
+ */
+public final class AstInterner {
+
+    private static final int SEGMENT_BITS = 4;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public AstInterner() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Returns the canonical instance of the node, which is the node itself if
+     * no structurally equal node was interned (and is still referenced). The
+     * children of the node are expected to be canonical already.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Ast> T intern(T node) {
+        var hash = hash(node);
+        hash ^= hash >>> 16;
+        return (T) segments[hash >>> (Integer.SIZE - SEGMENT_BITS)].intern(node, hash);
+    }
+
+    /**
+     * Returns the components of a node, in declaration order.
+     */
+    private static Object[] components(Ast node) {
+        return switch (node) {
+            case Ast.Source ast -> new Object[] {ast.statements()};
+            case Ast.Stmt.Let ast -> new Object[] {ast.name(), ast.type(), ast.value()};
+            case Ast.Stmt.Def ast -> new Object[] {ast.name(), ast.parameters(), ast.parameterTypes(), ast.returnType(), ast.body()};
+            case Ast.Stmt.If ast -> new Object[] {ast.condition(), ast.thenBody(), ast.elseBody()};
+            case Ast.Stmt.For ast -> new Object[] {ast.name(), ast.expression(), ast.body()};
+            case Ast.Stmt.Return ast -> new Object[] {ast.value()};
+            case Ast.Stmt.Expression ast -> new Object[] {ast.expression()};
+            case Ast.Stmt.Assignment ast -> new Object[] {ast.expression(), ast.value()};
+            case Ast.Expr.Literal ast -> new Object[] {ast.value()};
+            case Ast.Expr.Group ast -> new Object[] {ast.expression()};
+            case Ast.Expr.Binary ast -> new Object[] {ast.operator(), ast.left(), ast.right()};
+            case Ast.Expr.Variable ast -> new Object[] {ast.name()};
+            case Ast.Expr.Property ast -> new Object[] {ast.receiver(), ast.name()};
+            case Ast.Expr.Function ast -> new Object[] {ast.name(), ast.arguments()};
+            case Ast.Expr.Method ast -> new Object[] {ast.receiver(), ast.name(), ast.arguments()};
+            case Ast.Expr.ObjectExpr ast -> new Object[] {ast.name(), ast.fields(), ast.methods()};
+        };
+    }
+
+    private static int hash(Ast node) {
+        var hash = node.getClass().hashCode();
+        for (var component : components(node)) {
+            hash = 31 * hash + shallowHash(component);
+        }
+        return hash;
+    }
+
+    private static boolean same(Ast left, Ast right) {
+        if (left.getClass() != right.getClass()) {
+            return false;
+        }
+        var leftComponents = components(left);
+        var rightComponents = components(right);
+        for (int i = 0; i < leftComponents.length; i++) {
+            if (!shallowEquals(leftComponents[i], rightComponents[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int shallowHash(Object value) {
+        return switch (value) {
+            case Ast ast -> System.identityHashCode(ast);
+            case Optional<?> optional -> optional.map(AstInterner::shallowHash).orElse(0);
+            case List<?> list -> {
+                var hash = 1;
+                for (var element : list) {
+                    hash = 31 * hash + shallowHash(element);
+                }
+                yield hash;
+            }
+            case null -> 0;
+            default -> value.hashCode();
+        };
+    }
+
+    private static boolean shallowEquals(Object left, Object right) {
+        return switch (left) {
+            case Ast ast -> ast == right;
+            case Optional<?> optional when right instanceof Optional<?> other -> optional.isEmpty()
+                ? other.isEmpty()
+                : other.isPresent() && shallowEquals(optional.get(), other.get());
+            case List<?> list when right instanceof List<?> other -> {
+                if (list.size() != other.size()) {
+                    yield false;
+                }
+                for (int i = 0; i < list.size(); i++) {
+                    if (!shallowEquals(list.get(i), other.get(i))) {
+                        yield false;
+                    }
+                }
+                yield true;
+            }
+            case null -> right == null;
+            default -> left.equals(right);
+        };
+    }
+
+    /**
+     * A hash table of weakly referenced nodes, guarded by its own lock.
+     */
+    private static final class Segment {
+
+        private final ReferenceQueue<Ast> queue = new ReferenceQueue<>();
+        private Entry[] table = new Entry[16];
+        private int size = 0;
+
+        private synchronized Ast intern(Ast node, int hash) {
+            expunge();
+            var index = hash & (table.length - 1);
+            for (var entry = table[index]; entry != null; entry = entry.next) {
+                if (entry.hash == hash) {
+                    var existing = entry.get();
+                    if (existing != null && same(existing, node)) {
+                        return existing;
+                    }
+                }
+            }
+            table[index] = new Entry(node, hash, table[index], queue);
+            if (++size > table.length / 4 * 3) {
+                resize();
+            }
+            return node;
+        }
+
+        /**
+         * Removes the entries of collected nodes.
+         */
+        private void expunge() {
+            for (var cleared = queue.poll(); cleared != null; cleared = queue.poll()) {
+                var entry = (Entry) cleared;
+                var index = entry.hash & (table.length - 1);
+                Entry previous = null;
+                for (var current = table[index]; current != null; previous = current, current = current.next) {
+                    if (current == entry) {
+                        if (previous == null) {
+                            table[index] = current.next;
+                        } else {
+                            previous.next = current.next;
+                        }
+                        size--;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            var resized = new Entry[2 * table.length];
+            size = 0;
+            for (var entry : table) {
+                while (entry != null) {
+                    var next = entry.next;
+                    if (entry.get() != null) {
+                        var index = entry.hash & (resized.length - 1);
+                        entry.next = resized[index];
+                        resized[index] = entry;
+                        size++;
+                    }
+                    entry = next;
+                }
+            }
+            table = resized;
+        }
+
+    }
+
+    private static final class Entry extends WeakReference<Ast> {
+
+        private final int hash;
+        private Entry next;
+
+        private Entry(Ast node, int hash, Entry next, ReferenceQueue<Ast> queue) {
+            super(node, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+
+    }
+
+}
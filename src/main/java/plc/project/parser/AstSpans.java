@@ -0,0 +1,69 @@
+package plc.project.parser;
+
+import plc.project.lexer.LineIndex;
+import plc.project.lexer.TokenBuffer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A side table of the source spans of {@link Ast} nodes, which do not carry
+ * locations themselves. Spans are recorded by a {@link Parser} created with
+ * this table (see {@link Parser#Parser(TokenBuffer, AstInterner, AstSpans)})
+ * for every statement and expression it creates, keyed by node identity.
+ *
+ * <p>With an {@link AstInterner}, a node may occur multiple times, in which
+ * case its span is that of its first occurrence.
+ *
+ * <p>The table is thread-safe, as the bodies of a source parsed with
+ * {@link Parser#parseLazy()} record their spans on whichever thread first
+ * accesses them.
+ */
+public final class AstSpans {
+
+    /**
+     * The tokens [startToken, endToken) of a node, and the corresponding
+     * offsets [startOffset, endOffset) of the input (see
+     * {@link TokenBuffer#start(int)}).
+     */
+    public record Span(int startToken, int endToken, int startOffset, int endOffset) {}
+
+    private final TokenBuffer tokens;
+    private final Map<Ast, Span> spans = new IdentityHashMap<>();
+
+    public AstSpans(TokenBuffer tokens) {
+        this.tokens = tokens;
+    }
+
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
+    synchronized void record(Ast node, int start, int end) {
+        if (!spans.containsKey(node)) {
+            spans.put(node, new Span(start, end, tokens.start(start), tokens.end(end - 1)));
+        }
+    }
+
+    public synchronized int size() {
+        return spans.size();
+    }
+
+    /**
+     * Returns the span of the node, or empty if it was not recorded (such as
+     * nodes created by another parser).
+     */
+    public synchronized Optional<Span> get(Ast node) {
+        return Optional.ofNullable(spans.get(node));
+    }
+
+    /**
+     * Returns the line and column of the start of the node, as with
+     * {@link Parser#position(ParseException)}.
+     */
+    public Optional<LineIndex.Position> position(Ast node) {
+        return get(node).map(span -> tokens.lines().position(span.startOffset()));
+    }
+
+}
@@ -0,0 +1,168 @@
+package plc.project.parser;
+
+import plc.project.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static plc.project.lexer.SymbolTable.*;
+
+/**
+ * The parts of the grammar shared by the recursive {@link Parser} and the
+ * {@link IterativeParser}, which only differ in how they parse rules which
+ * reference other rules. Shared are the choice of alternative of a rule by
+ * the next token, rules (and prefixes of rules) which do not reference other
+ * rules, and the error message of every expected token. Both parsers
+ * therefore consume tokens and throw errors identically.
+ */
+final class Grammar {
+
+    static final String LET_SEMICOLON = "Missing ';' in let statement.";
+    static final String DEF_END = "Missing 'END' in def statement.";
+    static final String IF_START = "Expected 'IF' in if statement.";
+    static final String IF_DO = "Missing 'DO' in if statement.";
+    static final String IF_END = "Missing 'END' in if statement.";
+    static final String FOR_DO = "Missing 'DO' in for statement.";
+    static final String FOR_END = "Missing 'END' in for statement.";
+    static final String RETURN_START = "Expected 'RETURN' in return statement.";
+    static final String RETURN_SEMICOLON = "Missing ';' in return statement.";
+    static final String STATEMENT_SEMICOLON = "Missing ';' in statement.";
+    static final String EXPRESSION_IDENTIFIER = "Expected identifier in expression.";
+    static final String ARGUMENTS_END = "Missing closing parentheses in expression.";
+    static final String GROUP_START = "Missing opening parentheses in group expression.";
+    static final String GROUP_END = "Missing closing parentheses in group expression.";
+    static final String OBJECT_END = "Missing 'END' in Object expression";
+    static final String END_OF_INPUT = "Expected end of input.";
+
+    /**
+     * The alternatives of {@code stmt}.
+     */
+    enum StmtRule { LET, DEF, IF, FOR, RETURN, EXPRESSION_OR_ASSIGNMENT }
+
+    /**
+     * The alternatives of {@code primary_expr}.
+     */
+    enum PrimaryRule { LITERAL, GROUP, OBJECT, VARIABLE_OR_FUNCTION }
+
+    /**
+     * The prefix of a {@code let_stmt} before its optional value.
+     */
+    record LetHeader(String name, Optional<String> type) {}
+
+    /**
+     * The prefix of a {@code def_stmt} up to (and including) the {@code DO}
+     * of its body.
+     */
+    record DefHeader(String name, List<String> parameters, List<Optional<String>> parameterTypes, Optional<String> returnType) {}
+
+    private Grammar() {}
+
+    // stmt ::= let_stmt | def_stmt | if_stmt | for_stmt | return_stmt | expression_or_assignment_stmt
+    static StmtRule stmt(Parser.TokenStream tokens) {
+        if (tokens.peek(LET)) {
+            return StmtRule.LET;
+        } else if (tokens.peek(DEF)) {
+            return StmtRule.DEF;
+        } else if (tokens.peek(IF)) {
+            return StmtRule.IF;
+        } else if (tokens.peek(FOR)) {
+            return StmtRule.FOR;
+        } else if (tokens.peek(RETURN)) {
+            return StmtRule.RETURN;
+        }
+        return StmtRule.EXPRESSION_OR_ASSIGNMENT;
+    }
+
+    // let_stmt ::= 'LET' identifier (':' identifier)? ...
+    static LetHeader letHeader(Parser.TokenStream tokens) throws ParseException {
+        tokens.expect(LET, "Expected 'LET' in let statement.");
+        var name = tokens.expectIdentifier("Expected identifier in let statement.");
+        return new LetHeader(name, typeAnnotation(tokens));
+    }
+
+    // def_stmt ::= 'DEF' identifier '(' (identifier (':' identifier)? (',' identifier (':' identifier)?)*)? ')' (':' identifier)? 'DO' ...
+    static DefHeader defHeader(Parser.TokenStream tokens) throws ParseException {
+        tokens.expect(DEF, "Expected 'DEF' in def statement.");
+        var name = tokens.expectIdentifier("Expected identifier in def statement.");
+        tokens.expect(LEFT_PAREN, "Missing opening parentheses in def statement.");
+        var parameters = new ArrayList<String>();
+        var parameterTypes = new ArrayList<Optional<String>>();
+        if (!tokens.peek(RIGHT_PAREN)) {
+            do {
+                parameters.add(tokens.expectIdentifier("Expected parameter name in def statement."));
+                parameterTypes.add(typeAnnotation(tokens));
+            } while (tokens.match(COMMA));
+        }
+        tokens.expect(RIGHT_PAREN, "Missing closing parentheses in def statement.");
+        var returnType = typeAnnotation(tokens);
+        tokens.expect(DO, "Missing 'DO' in def statement.");
+        return new DefHeader(name, parameters, parameterTypes, returnType);
+    }
+
+    // for_stmt ::= 'FOR' identifier 'IN' ...
+    static String forHeader(Parser.TokenStream tokens) throws ParseException {
+        tokens.expect(FOR, "Expected 'FOR' in for statement.");
+        var name = tokens.expectIdentifier("Expected identifier in for statement.");
+        tokens.expect(IN, "Missing 'IN' in for statement.");
+        return name;
+    }
+
+    // type_annotation ::= (':' identifier)?
+    static Optional<String> typeAnnotation(Parser.TokenStream tokens) throws ParseException {
+        if (!tokens.match(COLON)) {
+            return Optional.empty();
+        }
+        return Optional.of(tokens.expectIdentifier("Expected type name after ':'."));
+    }
+
+    // primary_expr ::= literal_expr | group_expr | object_expr | variable_or_function_expr
+    static PrimaryRule primary(Parser.TokenStream tokens) throws ParseException {
+        if (!tokens.has(0)) {
+            throw new ParseException("Expected expression, found end of input.", tokens.getNext());
+        }
+        var type = tokens.getType(0);
+        if (type != Token.Type.IDENTIFIER && type != Token.Type.OPERATOR || tokens.peek(NIL) || tokens.peek(TRUE) || tokens.peek(FALSE)) {
+            return PrimaryRule.LITERAL;
+        } else if (tokens.peek(LEFT_PAREN)) {
+            return PrimaryRule.GROUP;
+        } else if (tokens.peek(OBJECT)) {
+            return PrimaryRule.OBJECT;
+        } else if (type == Token.Type.IDENTIFIER) {
+            return PrimaryRule.VARIABLE_OR_FUNCTION;
+        }
+        throw new ParseException("No Literal, Group, Object, or Variable/Function Expression found", tokens.getNext());
+    }
+
+    // literal_expr ::= 'NIL' | 'TRUE' | 'FALSE' | integer | decimal | character | string
+    static Ast.Expr.Literal literal(Parser.TokenStream tokens) throws ParseException {
+        if (tokens.match(NIL)) {
+            return new Ast.Expr.Literal(null);
+        } else if (tokens.match(TRUE)) {
+            return new Ast.Expr.Literal(true);
+        } else if (tokens.match(FALSE)) {
+            return new Ast.Expr.Literal(false);
+        } else if (tokens.match(Token.Type.INTEGER) || tokens.match(Token.Type.DECIMAL)) {
+            return new Ast.Expr.Literal(tokens.getNumber(-1)); // BigDecimal with an exponent, even for integers
+        } else if (tokens.match(Token.Type.CHARACTER)) {
+            return new Ast.Expr.Literal(tokens.getCharacter(-1));
+        } else if (tokens.match(Token.Type.STRING)) {
+            return new Ast.Expr.Literal(tokens.getString(-1).toString()); // payload is decoded by the lexer
+        }
+        throw new ParseException("Expected a literal expression.", tokens.getNext());
+    }
+
+    // object_expr ::= 'OBJECT' identifier? 'DO' ...
+    static Optional<String> objectHeader(Parser.TokenStream tokens) throws ParseException {
+        tokens.expect(OBJECT, "Expected a object expression.");
+        if (tokens.match(DO)) {
+            return Optional.empty();
+        } else if (!tokens.match(Token.Type.IDENTIFIER)) {
+            throw new ParseException("Missing 'DO' in Object expression", tokens.getNext());
+        }
+        var name = tokens.getLiteral(-1);
+        tokens.expect(DO, "Missing 'DO' after identifier");
+        return Optional.of(name);
+    }
+
+}
@@ -0,0 +1,169 @@
+package plc.project.parser;
+
+import com.google.common.base.Preconditions;
+import plc.project.lexer.IncrementalLexer;
+import plc.project.lexer.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static plc.project.lexer.SymbolTable.*;
+
+/**
+ * Re-parses a source after an edit to its tokens, reusing the statements of
+ * the previous {@link Ast.Source} (by identity) which were not affected.
+ *
+ * <p>The token range of each previous statement is recovered by scanning the
+ * previous tokens with {@link StatementScanner}. Statements ending before the
+ * edit are reused as is.
+ * Parsing restarts at the first affected statement and continues until it
+ * reaches the start of a previous statement after the edit, from which point
+ * the remaining statements are unchanged and reused, as in
+ * {@link IncrementalLexer}.
+ *
+ * <p>If the edit is entirely within the body of a single {@code DEF},
+ * {@code IF} or {@code FOR} statement, the same process is applied to that
+ * body, creating a new statement that reuses the unaffected statements of
+ * the body. Should the body no longer parse or end in the same place (e.g.
+ * after inserting an {@code END}), the entire statement is re-parsed instead.
+ */
+public final class IncrementalParser {
+
+    private final TokenBuffer previous;
+    private final TokenBuffer tokens;
+    private final int start;
+    private final int oldEnd;
+    private final int newEnd;
+    private final int delta;
+    private final Parser parser;
+
+    private IncrementalParser(TokenBuffer previous, TokenBuffer tokens, int start, int oldEnd, int newEnd) {
+        this.previous = previous;
+        this.tokens = tokens;
+        this.start = start;
+        this.oldEnd = oldEnd;
+        this.newEnd = newEnd;
+        this.delta = newEnd - oldEnd;
+        this.parser = new Parser(tokens);
+    }
+
+    /**
+     * Re-parses tokens, where the previous tokens [start, oldEnd) (parsed as
+     * source) were replaced by the tokens [start, newEnd).
+     */
+    public static Ast.Source reparse(Ast.Source source, TokenBuffer previous, TokenBuffer tokens, int start, int oldEnd, int newEnd) throws ParseException {
+        Objects.checkFromToIndex(start, oldEnd, previous.size());
+        Objects.checkFromToIndex(start, newEnd, tokens.size());
+        Preconditions.checkArgument(previous.size() - oldEnd == tokens.size() - newEnd, "Tokens after the edit must be unchanged.");
+        //The changed range may include unchanged tokens (e.g. from re-lexing), which are trimmed.
+        while (start < oldEnd && start < newEnd && equals(previous, start, tokens, start)) {
+            start++;
+        }
+        while (oldEnd > start && newEnd > start && equals(previous, oldEnd - 1, tokens, newEnd - 1)) {
+            oldEnd--;
+            newEnd--;
+        }
+        var statements = new IncrementalParser(previous, tokens, start, oldEnd, newEnd).reparse(source.statements(), 0, previous.size(), false, false);
+        return statements != null ? new Ast.Source(statements) : (Ast.Source) new Parser(tokens).parse("source");
+    }
+
+    /**
+     * Re-parses the tokens of an {@link IncrementalLexer} result.
+     */
+    public static Ast.Source reparse(Ast.Source source, TokenBuffer previous, IncrementalLexer.Result result) throws ParseException {
+        return reparse(source, previous, result.tokens(), result.start(), result.oldEnd(), result.newEnd());
+    }
+
+    /**
+     * Re-parses the statements which previously occupied the tokens
+     * [from, to), returning null if their ranges cannot be determined or,
+     * for nested bodies, if the body no longer ends at the same token.
+     */
+    private List<Ast.Stmt> reparse(List<Ast.Stmt> statements, int from, int to, boolean nested, boolean elseEnds) throws ParseException {
+        var bounds = StatementScanner.split(previous, from, to);
+        if (bounds == null || bounds.length - 1 != statements.size()) {
+            return null;
+        }
+        var first = 0;
+        while (first < statements.size() && bounds[first + 1] <= start) {
+            first++;
+        }
+        if (first < statements.size() && bounds[first] < start && oldEnd < bounds[first + 1]) {
+            var stmt = reparseBody(statements.get(first), bounds[first], bounds[first + 1]);
+            if (stmt != null) {
+                var result = new ArrayList<>(statements);
+                result.set(first, stmt);
+                return result;
+            }
+        }
+        var result = new ArrayList<>(statements.subList(0, first));
+        var next = first;
+        var index = bounds[first];
+        var end = to + delta;
+        while (true) {
+            if (index >= newEnd) {
+                while (next < statements.size() && bounds[next] + delta < index) {
+                    next++;
+                }
+                if (next < statements.size() && bounds[next] + delta == index) {
+                    result.addAll(statements.subList(next, statements.size()));
+                    return result;
+                }
+            }
+            if (index == end) {
+                return result;
+            } else if (index > end || nested && (tokens.kind(index) == END || elseEnds && tokens.kind(index) == ELSE)) {
+                return null;
+            }
+            result.add(parser.parseStmtAt(index));
+            index = parser.index();
+        }
+    }
+
+    /**
+     * Re-parses the body of a DEF, IF or FOR statement which previously
+     * occupied the tokens [from, to) and contains the edit, returning null if
+     * the edit is not within a body or the body could not be re-parsed.
+     */
+    private Ast.Stmt reparseBody(Ast.Stmt stmt, int from, int to) {
+        if (!(stmt instanceof Ast.Stmt.Def || stmt instanceof Ast.Stmt.If || stmt instanceof Ast.Stmt.For)) {
+            return null;
+        }
+        var block = StatementScanner.findBlock(previous, from, to);
+        if (block == -1 || start <= block) {
+            return null;
+        }
+        try {
+            return switch (stmt) {
+                case Ast.Stmt.Def def -> {
+                    var body = reparse(def.body(), block + 1, to - 1, true, false);
+                    yield body == null ? null : new Ast.Stmt.Def(def.name(), def.parameters(), def.parameterTypes(), def.returnType(), body);
+                }
+                case Ast.Stmt.For loop -> {
+                    var body = reparse(loop.body(), block + 1, to - 1, true, false);
+                    yield body == null ? null : new Ast.Stmt.For(loop.name(), loop.expression(), body);
+                }
+                case Ast.Stmt.If branch -> {
+                    var elseIndex = StatementScanner.findElse(previous, block, to - 1);
+                    if (oldEnd <= (elseIndex != -1 ? elseIndex : to - 1)) {
+                        var body = reparse(branch.thenBody(), block + 1, elseIndex != -1 ? elseIndex : to - 1, true, true);
+                        yield body == null ? null : new Ast.Stmt.If(branch.condition(), body, branch.elseBody());
+                    } else if (elseIndex != -1 && start > elseIndex) {
+                        var body = reparse(branch.elseBody(), elseIndex + 1, to - 1, true, false);
+                        yield body == null ? null : new Ast.Stmt.If(branch.condition(), branch.thenBody(), body);
+                    }
+                    yield null;
+                }
+                default -> throw new AssertionError(stmt);
+            };
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean equals(TokenBuffer previous, int i, TokenBuffer tokens, int j) {
+        return previous.type(i) == tokens.type(j) && tokens.literalEquals(j, previous.literal(i));
+    }
+
+}
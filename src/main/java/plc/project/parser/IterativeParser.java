@@ -0,0 +1,507 @@
+package plc.project.parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static plc.project.lexer.SymbolTable.*;
+
+/**
+ * A stack-safe equivalent of the recursive descent methods of
+ * {@link Parser}, used by {@link Parser#parseIterative(String)}. Each rule
+ * which references another rule is a {@link Frame} on an explicit, heap
+ * allocated stack instead of a method on the call stack, so nesting depth is
+ * only limited by the heap and the thread's stack usage is constant.
+ *
+ * <p>A frame is a small state machine: {@link Frame#step} runs until the rule
+ * needs the result of another rule, which it pushes with {@link #call} and
+ * then returns. Once that frame completes, the parent is stepped again with
+ * the result. Tokens are consumed and errors thrown in exactly the same
+ * order as the recursive methods, producing the same AST and exceptions.
+ * Everything but the calls between rules (choosing alternatives, rules
+ * without references, and error messages) is shared with {@link Parser}
+ * through {@link Grammar}, so only the control flow differs.
+ */
+final class IterativeParser {
+
+    /**
+     * Returned by {@link Frame#step} after pushing another frame.
+     */
+    private static final Object PENDING = new Object();
+
+    private final Parser.TokenStream tokens;
+    private final AstInterner interner;
+    private final AstSpans spans;
+    private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+
+    IterativeParser(Parser.TokenStream tokens, AstInterner interner, AstSpans spans) {
+        this.tokens = tokens;
+        this.interner = interner;
+        this.spans = spans;
+    }
+
+    Ast parse(String rule) throws ParseException {
+        var ast = (Ast) run(switch (rule) {
+            case "source" -> new SourceFrame();
+            case "stmt" -> stmt();
+            case "expr" -> expr();
+            default -> throw new AssertionError(rule);
+        });
+        if (tokens.has(0)) {
+            throw new ParseException(Grammar.END_OF_INPUT, tokens.getNext());
+        }
+        return ast;
+    }
+
+    private Object run(Frame root) throws ParseException {
+        stack.push(root);
+        Object value = null;
+        while (true) {
+            var result = stack.peek().step(value);
+            if (result == PENDING) {
+                value = null;
+                continue;
+            }
+            stack.pop();
+            if (stack.isEmpty()) {
+                return result;
+            }
+            value = result;
+        }
+    }
+
+    private Object call(Frame frame) {
+        stack.push(frame);
+        return PENDING;
+    }
+
+    /**
+     * Returns the node, interned and with its span recorded as in
+     * {@link Parser}.
+     */
+    private <T extends Ast> T node(int start, T node) {
+        if (interner != null) {
+            node = interner.intern(node);
+        }
+        if (spans != null) {
+            spans.record(node, start, tokens.index());
+        }
+        return node;
+    }
+
+    private abstract class Frame {
+
+        /**
+         * The index of the first token of the rule, as frames are created
+         * before any of their tokens are consumed.
+         */
+        final int start = tokens.index();
+        int state = 0;
+
+        /**
+         * Advances the rule, where value is the result of the last frame
+         * pushed by this one (or null initially). Returns either the result
+         * of the rule or {@link #PENDING}.
+         */
+        abstract Object step(Object value) throws ParseException;
+
+    }
+
+    // stmt ::= let_stmt | def_stmt | if_stmt | for_stmt | return_stmt | expression_or_assignment_stmt
+    private Frame stmt() {
+        return switch (Grammar.stmt(tokens)) {
+            case LET -> new LetFrame();
+            case DEF -> new DefFrame();
+            case IF -> new IfFrame();
+            case FOR -> new ForFrame();
+            case RETURN -> new ReturnFrame();
+            case EXPRESSION_OR_ASSIGNMENT -> new ExpressionOrAssignmentFrame();
+        };
+    }
+
+    // expr ::= logical_expr
+    private Frame expr() {
+        return new BinaryFrame(0);
+    }
+
+    // source ::= stmt*
+    private final class SourceFrame extends Frame {
+
+        private final List<Ast.Stmt> statements = new ArrayList<>();
+
+        @Override
+        Object step(Object value) {
+            if (value != null) {
+                statements.add((Ast.Stmt) value);
+            }
+            return tokens.has(0) ? call(stmt()) : new Ast.Source(statements);
+        }
+
+    }
+
+    // let_stmt ::= 'LET' identifier (':' identifier)? ('=' expr)? ';'
+    private final class LetFrame extends Frame {
+
+        private Grammar.LetHeader header;
+
+        @Override
+        Object step(Object value) throws ParseException {
+            if (state == 0) {
+                header = Grammar.letHeader(tokens);
+                state = 1;
+                if (tokens.match(ASSIGN)) {
+                    return call(expr());
+                }
+            }
+            tokens.expect(SEMICOLON, Grammar.LET_SEMICOLON);
+            return node(start, new Ast.Stmt.Let(header.name(), header.type(), Optional.ofNullable((Ast.Expr) value)));
+        }
+
+    }
+
+    // def_stmt ::= 'DEF' identifier '(' (identifier (':' identifier)? (',' identifier (':' identifier)?)*)? ')' (':' identifier)? 'DO' stmt* 'END'
+    private final class DefFrame extends Frame {
+
+        private Grammar.DefHeader header;
+        private final List<Ast.Stmt> body = new ArrayList<>();
+
+        @Override
+        Object step(Object value) throws ParseException {
+            if (state == 0) {
+                header = Grammar.defHeader(tokens);
+                state = 1;
+            } else {
+                body.add((Ast.Stmt) value);
+            }
+            if (tokens.has(0) && !tokens.peek(END)) {
+                return call(stmt());
+            }
+            tokens.expect(END, Grammar.DEF_END);
+            return node(start, new Ast.Stmt.Def(header.name(), header.parameters(), header.parameterTypes(), header.returnType(), body));
+        }
+
+    }
+
+    // if_stmt ::= 'IF' expr 'DO' stmt* ('ELSE' stmt*)? 'END'
+    private final class IfFrame extends Frame {
+
+        private Ast.Expr condition;
+        private final List<Ast.Stmt> thenBody = new ArrayList<>();
+        private final List<Ast.Stmt> elseBody = new ArrayList<>();
+
+        @Override
+        Object step(Object value) throws ParseException {
+            switch (state) {
+                case 0 -> {
+                    tokens.expect(IF, Grammar.IF_START);
+                    state = 1;
+                    return call(expr());
+                }
+                case 1 -> {
+                    condition = (Ast.Expr) value;
+                    tokens.expect(DO, Grammar.IF_DO);
+                    state = 2;
+                }
+                case 2 -> thenBody.add((Ast.Stmt) value);
+                case 3 -> elseBody.add((Ast.Stmt) value);
+                default -> throw new AssertionError(state);
+            }
+            if (state == 2) {
+                if (tokens.has(0) && !tokens.peek(ELSE) && !tokens.peek(END)) {
+                    return call(stmt());
+                }
+                if (tokens.match(ELSE)) {
+                    state = 3;
+                }
+            }
+            if (state == 3 && tokens.has(0) && !tokens.peek(END)) {
+                return call(stmt());
+            }
+            tokens.expect(END, Grammar.IF_END);
+            return node(start, new Ast.Stmt.If(condition, thenBody, elseBody));
+        }
+
+    }
+
+    // for_stmt ::= 'FOR' identifier 'IN' expr 'DO' stmt* 'END'
+    private final class ForFrame extends Frame {
+
+        private String name;
+        private Ast.Expr expression;
+        private final List<Ast.Stmt> body = new ArrayList<>();
+
+        @Override
+        Object step(Object value) throws ParseException {
+            switch (state) {
+                case 0 -> {
+                    name = Grammar.forHeader(tokens);
+                    state = 1;
+                    return call(expr());
+                }
+                case 1 -> {
+                    expression = (Ast.Expr) value;
+                    tokens.expect(DO, Grammar.FOR_DO);
+                    state = 2;
+                }
+                default -> body.add((Ast.Stmt) value);
+            }
+            if (tokens.has(0) && !tokens.peek(END)) {
+                return call(stmt());
+            }
+            tokens.expect(END, Grammar.FOR_END);
+            return node(start, new Ast.Stmt.For(name, expression, body));
+        }
+
+    }
+
+    // return_stmt ::= 'RETURN' expr? ('IF' expr)? ';'
+    private final class ReturnFrame extends Frame {
+
+        private Optional<Ast.Expr> value = Optional.empty();
+
+        @Override
+        Object step(Object result) throws ParseException {
+            switch (state) {
+                case 0 -> {
+                    tokens.expect(RETURN, Grammar.RETURN_START);
+                    state = 1;
+                    if (!tokens.peek(IF) && !tokens.peek(SEMICOLON)) {
+                        return call(expr());
+                    }
+                }
+                case 1 -> value = Optional.of((Ast.Expr) result);
+                default -> {}
+            }
+            if (state == 1) {
+                state = 2;
+                if (tokens.match(IF)) {
+                    return call(expr());
+                }
+                result = null;
+            }
+            tokens.expect(SEMICOLON, Grammar.RETURN_SEMICOLON);
+            var stmt = node(start, new Ast.Stmt.Return(value));
+            return result != null ? node(start, new Ast.Stmt.If((Ast.Expr) result, List.of(stmt), List.of())) : stmt;
+        }
+
+    }
+
+    // expression_or_assignment_stmt ::= expr ('=' expr)? ';'
+    private final class ExpressionOrAssignmentFrame extends Frame {
+
+        private Ast.Expr expression;
+
+        @Override
+        Object step(Object value) throws ParseException {
+            Ast.Stmt stmt;
+            switch (state) {
+                case 0 -> {
+                    state = 1;
+                    return call(expr());
+                }
+                case 1 -> {
+                    expression = (Ast.Expr) value;
+                    if (tokens.match(ASSIGN)) {
+                        state = 2;
+                        return call(expr());
+                    }
+                    stmt = new Ast.Stmt.Expression(expression);
+                }
+                default -> stmt = new Ast.Stmt.Assignment(expression, (Ast.Expr) value);
+            }
+            tokens.expect(SEMICOLON, Grammar.STATEMENT_SEMICOLON);
+            return node(start, stmt);
+        }
+
+    }
+
+    /**
+     * Precedence climbing, as in {@link Parser}: the right operand of each
+     * operator is a new frame with the operator's binding power.
+     */
+    private final class BinaryFrame extends Frame {
+
+        private final int minimum;
+        private Ast.Expr left;
+        private String operator;
+
+        private BinaryFrame(int minimum) {
+            this.minimum = minimum;
+        }
+
+        @Override
+        Object step(Object value) {
+            switch (state) {
+                case 0 -> {
+                    state = 1;
+                    return call(new SecondaryFrame());
+                }
+                case 1 -> {
+                    left = (Ast.Expr) value;
+                    state = 2;
+                }
+                default -> left = node(start, new Ast.Expr.Binary(operator, left, (Ast.Expr) value));
+            }
+            if (tokens.has(0)) {
+                var kind = tokens.getKind(0);
+                var power = kind >= 0 && kind < Parser.BINDING_POWER.length ? Parser.BINDING_POWER[kind] : 0;
+                if (power > minimum) {
+                    operator = tokens.getLiteral(0);
+                    tokens.match(kind);
+                    return call(new BinaryFrame(power));
+                }
+            }
+            return left;
+        }
+
+    }
+
+    // secondary_expr ::= primary_expr property_or_method*
+    // property_or_method ::= '.' identifier ('(' (expr (',' expr)*)? ')')?
+    private final class SecondaryFrame extends Frame {
+
+        private Ast.Expr receiver;
+        private String name;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object step(Object value) throws ParseException {
+            switch (state) {
+                case 0 -> {
+                    state = 1;
+                    return call(primary());
+                }
+                case 1 -> receiver = (Ast.Expr) value;
+                default -> receiver = node(start, new Ast.Expr.Method(receiver, name, (List<Ast.Expr>) value));
+            }
+            while (tokens.match(DOT)) {
+                name = tokens.expectIdentifier(Grammar.EXPRESSION_IDENTIFIER);
+                if (tokens.match(LEFT_PAREN)) {
+                    state = 2;
+                    return call(new ArgumentsFrame());
+                }
+                receiver = node(start, new Ast.Expr.Property(receiver, name));
+            }
+            return receiver;
+        }
+
+    }
+
+    /**
+     * The arguments of a function or method following its {@code '('},
+     * through the closing {@code ')'}, as a list of expressions.
+     */
+    private final class ArgumentsFrame extends Frame {
+
+        private final List<Ast.Expr> arguments = new ArrayList<>();
+
+        @Override
+        Object step(Object value) throws ParseException {
+            if (state == 0) {
+                state = 1;
+                if (!tokens.peek(RIGHT_PAREN)) {
+                    return call(expr());
+                }
+            } else {
+                arguments.add((Ast.Expr) value);
+                if (tokens.match(COMMA)) {
+                    return call(expr());
+                }
+            }
+            tokens.expect(RIGHT_PAREN, Grammar.ARGUMENTS_END);
+            return arguments;
+        }
+
+    }
+
+    // primary_expr ::= literal_expr | group_expr | object_expr | variable_or_function_expr
+    private Frame primary() throws ParseException {
+        return switch (Grammar.primary(tokens)) {
+            case LITERAL -> new LiteralFrame();
+            case GROUP -> new GroupFrame();
+            case OBJECT -> new ObjectFrame();
+            case VARIABLE_OR_FUNCTION -> new VariableOrFunctionFrame();
+        };
+    }
+
+    // literal_expr ::= 'NIL' | 'TRUE' | 'FALSE' | integer | decimal | character | string
+    private final class LiteralFrame extends Frame {
+
+        @Override
+        Object step(Object value) throws ParseException {
+            return node(start, Grammar.literal(tokens));
+        }
+
+    }
+
+    // group_expr ::= '(' expr ')'
+    private final class GroupFrame extends Frame {
+
+        @Override
+        Object step(Object value) throws ParseException {
+            if (state == 0) {
+                tokens.expect(LEFT_PAREN, Grammar.GROUP_START);
+                state = 1;
+                return call(expr());
+            }
+            tokens.expect(RIGHT_PAREN, Grammar.GROUP_END);
+            return node(start, new Ast.Expr.Group((Ast.Expr) value));
+        }
+
+    }
+
+    // object_expr ::= 'OBJECT' identifier? 'DO' let_stmt* def_stmt* 'END'
+    private final class ObjectFrame extends Frame {
+
+        private Optional<String> name;
+        private final List<Ast.Stmt.Let> fields = new ArrayList<>();
+        private final List<Ast.Stmt.Def> methods = new ArrayList<>();
+
+        @Override
+        Object step(Object value) throws ParseException {
+            switch (state) {
+                case 0 -> {
+                    name = Grammar.objectHeader(tokens);
+                    state = 1;
+                }
+                case 1 -> fields.add((Ast.Stmt.Let) value);
+                default -> methods.add((Ast.Stmt.Def) value);
+            }
+            if (state == 1) {
+                if (tokens.peek(LET)) {
+                    return call(new LetFrame());
+                }
+                state = 2;
+            }
+            if (tokens.peek(DEF)) {
+                return call(new DefFrame());
+            }
+            tokens.expect(END, Grammar.OBJECT_END);
+            return node(start, new Ast.Expr.ObjectExpr(name, fields, methods));
+        }
+
+    }
+
+    // variable_or_function_expr ::= identifier ('(' (expr (',' expr)*)? ')')?
+    private final class VariableOrFunctionFrame extends Frame {
+
+        private String name;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object step(Object value) throws ParseException {
+            if (state == 0) {
+                name = tokens.expectIdentifier(Grammar.EXPRESSION_IDENTIFIER);
+                if (!tokens.match(LEFT_PAREN)) {
+                    return node(start, new Ast.Expr.Variable(name));
+                }
+                state = 1;
+                return call(new ArgumentsFrame());
+            }
+            return node(start, new Ast.Expr.Function(name, (List<Ast.Expr>) value));
+        }
+
+    }
+
+}
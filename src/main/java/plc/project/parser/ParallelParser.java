@@ -0,0 +1,123 @@
+package plc.project.parser;
+
+import plc.project.lexer.TokenBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses sources with many top-level statements in parallel by splitting the
+ * tokens into chunks at statement boundaries, parsing each chunk on a
+ * {@link ForkJoinPool}, and concatenating the statements in order into a
+ * source identical to {@link Parser#parse(String)}.
+ *
+ * <p>Boundaries are found with a pre-scan of the tokens by
+ * {@link StatementScanner}, which only tracks {@code DO}/{@code END} nesting
+ * and {@code ;}. Each chunk parses every statement starting before the end
+ * of the chunk (possibly reading past it) and records where it stopped, as
+ * with {@link plc.project.lexer.ParallelLexer}. While stitching, the next
+ * chunk is only accepted if it starts exactly where the previous chunk
+ * stopped; as parsing a statement only depends on the tokens from its start,
+ * the statements are then identical to sequential parsing. Otherwise, which
+ * is only possible for invalid input, the chunk is re-parsed from where the
+ * previous chunk stopped.
+ *
+ * <p>Parse errors are thrown for the first (accepted) chunk containing one,
+ * which is the same error as sequential parsing.
+ */
+public final class ParallelParser {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 14;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public ParallelParser() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelParser(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelParser(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public Ast.Source parse(TokenBuffer tokens) throws ParseException {
+        var bounds = split(tokens);
+        var tasks = new ArrayList<ForkJoinTask<Chunk>>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            var start = bounds[i];
+            var end = bounds[i + 1];
+            tasks.add(pool.submit(() -> Chunk.parse(tokens, start, end)));
+        }
+        var statements = new ArrayList<Ast.Stmt>();
+        var stop = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            var chunk = tasks.get(i).join();
+            if (chunk.start != stop) {
+                chunk = Chunk.parse(tokens, stop, Math.max(stop, bounds[i + 1]));
+            }
+            if (chunk.error != null) {
+                throw chunk.error;
+            }
+            statements.addAll(chunk.statements);
+            stop = chunk.stop;
+        }
+        return new Ast.Source(statements);
+    }
+
+    /**
+     * Returns the chunk boundaries, including 0 and tokens.size(), where each
+     * interior boundary is the start of a statement found by the pre-scan and
+     * chunks contain at least chunkSize tokens (or more, to limit the number
+     * of chunks). If the pre-scan finds an unterminated statement, the
+     * remaining tokens are a single chunk.
+     */
+    private int[] split(TokenBuffer tokens) {
+        var size = Math.max(chunkSize, tokens.size() / (4 * pool.getParallelism()));
+        var bounds = new int[Math.max(2, tokens.size() / size + 1)];
+        var count = 1;
+        var start = 0;
+        for (var index = 0; index < tokens.size() && index != -1; ) {
+            index = StatementScanner.skipStatement(tokens, index, tokens.size());
+            if (index != -1 && index < tokens.size() && index - start >= size) {
+                if (count + 1 >= bounds.length) {
+                    bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+                }
+                bounds[count++] = start = index;
+            }
+        }
+        bounds[count++] = tokens.size();
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * The result of parsing the statements starting in [start, end), where
+     * stop is where parsing stopped.
+     */
+    private record Chunk(List<Ast.Stmt> statements, int start, int stop, ParseException error) {
+
+        private static Chunk parse(TokenBuffer tokens, int start, int end) {
+            var parser = new Parser(tokens);
+            var statements = new ArrayList<Ast.Stmt>();
+            var index = start;
+            try {
+                while (index < end) {
+                    statements.add(parser.parseStmtAt(index));
+                    index = parser.index();
+                }
+                return new Chunk(statements, start, index, null);
+            } catch (ParseException e) {
+                return new Chunk(statements, start, -1, e);
+            }
+        }
+
+    }
+
+}
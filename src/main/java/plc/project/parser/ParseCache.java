@@ -0,0 +1,215 @@
+package plc.project.parser;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import plc.project.lexer.LexException;
+import plc.project.lexer.Lexer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A thread-safe cache of parsed ASTs in front of {@link Lexer} and
+ * {@link Parser}, for inputs which are parsed repeatedly. Cache hits skip
+ * lexing and parsing entirely, returning the same AST. As it is shared
+ * between callers, the AST is made immutable before it is cached by copying
+ * every list of the parsed tree (see {@link #freeze(Ast)}).
+ *
+ * <p>Entries are keyed by the rule and a 128-bit (murmur3) hash of the
+ * input, which is cheap to compute but not collision-resistant, so a crafted
+ * input could share the hash of another. Each entry therefore also retains
+ * its input, which is compared on every hit; an input colliding with a
+ * cached one is parsed without being cached. Retaining inputs roughly
+ * doubles the memory of an entry, which is the cost of never returning the
+ * AST of a different input. Entries are weighed by the length of their
+ * input, which approximates the size of the AST, and the least recently used
+ * entries are evicted once the total weight exceeds the maximum. Hit, miss
+ * and eviction counts are available via {@link #stats()}.
+ *
+ * <p>Errors are not cached; an input which fails to lex or parse does so
+ * again on each call. Concurrent calls for an uncached input wait for a
+ * single thread to parse it.
+ */
+public final class ParseCache {
+
+    private record Key(String rule, HashCode hash) {}
+
+    private record Entry(String input, Ast ast) {}
+
+    private final HashFunction hash;
+    private final Cache<Key, Entry> cache;
+
+    /**
+     * Creates a cache holding inputs with a total length of at most
+     * maximumWeight chars.
+     */
+    public ParseCache(long maximumWeight) {
+        this(maximumWeight, Hashing.murmur3_128());
+    }
+
+    /**
+     * Creates a cache as above keyed by the given hash function, which allows
+     * tests to produce collisions.
+     */
+    ParseCache(long maximumWeight, HashFunction hash) {
+        this.hash = hash;
+        Preconditions.checkArgument(maximumWeight >= 0, "Maximum weight must be non-negative: %s", maximumWeight);
+        this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maximumWeight)
+            .<Key, Entry>weigher((key, entry) -> entry.input.length())
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the AST of the input parsed as the given rule (as with
+     * {@link Parser#parse(String)}), which is cached. Inputs are parsed with
+     * {@link Parser#parseIterative(String)}, so deeply nested inputs do not
+     * overflow the stack.
+     */
+    public Ast parse(String input, String rule) throws LexException, ParseException {
+        var key = new Key(rule, hash.hashUnencodedChars(input));
+        try {
+            var entry = cache.get(key, () -> new Entry(input, freeze(parseUncached(input, rule))));
+            return entry.input.equals(input) ? entry.ast : parseUncached(input, rule);
+        } catch (ExecutionException e) {
+            switch (e.getCause()) {
+                case LexException cause -> throw cause;
+                case ParseException cause -> throw cause;
+                default -> throw new AssertionError(e.getCause());
+            }
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionError e) {
+            throw (Error) e.getCause();
+        }
+    }
+
+    private static Ast parseUncached(String input, String rule) throws LexException, ParseException {
+        return new Parser(new Lexer(input).lexBuffer()).parseIterative(rule);
+    }
+
+    /**
+     * Returns a structurally equal copy of the AST where every list is
+     * unmodifiable. Leaf expressions are shared with the original. Like
+     * {@link Parser#parseIterative(String)}, this uses an explicit stack
+     * instead of recursion: nodes are listed in pre-order, so copying them in
+     * reverse copies every child before its parent.
+     */
+    private static Ast freeze(Ast root) {
+        var nodes = new ArrayList<Ast>();
+        var stack = new ArrayDeque<Ast>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            var ast = stack.pop();
+            nodes.add(ast);
+            pushChildren(stack, ast);
+        }
+        var frozen = new IdentityHashMap<Ast, Ast>();
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            frozen.put(nodes.get(i), copy(nodes.get(i), frozen));
+        }
+        return frozen.get(root);
+    }
+
+    private static void pushChildren(ArrayDeque<Ast> stack, Ast ast) {
+        switch (ast) {
+            case Ast.Source source -> source.statements().forEach(stack::push);
+            case Ast.Stmt.Let stmt -> stmt.value().ifPresent(stack::push);
+            case Ast.Stmt.Def stmt -> stmt.body().forEach(stack::push);
+            case Ast.Stmt.If stmt -> {
+                stack.push(stmt.condition());
+                stmt.thenBody().forEach(stack::push);
+                stmt.elseBody().forEach(stack::push);
+            }
+            case Ast.Stmt.For stmt -> {
+                stack.push(stmt.expression());
+                stmt.body().forEach(stack::push);
+            }
+            case Ast.Stmt.Return stmt -> stmt.value().ifPresent(stack::push);
+            case Ast.Stmt.Expression stmt -> stack.push(stmt.expression());
+            case Ast.Stmt.Assignment stmt -> {
+                stack.push(stmt.expression());
+                stack.push(stmt.value());
+            }
+            case Ast.Expr.Literal expr -> {}
+            case Ast.Expr.Group expr -> stack.push(expr.expression());
+            case Ast.Expr.Binary expr -> {
+                stack.push(expr.left());
+                stack.push(expr.right());
+            }
+            case Ast.Expr.Variable expr -> {}
+            case Ast.Expr.Property expr -> stack.push(expr.receiver());
+            case Ast.Expr.Function expr -> expr.arguments().forEach(stack::push);
+            case Ast.Expr.Method expr -> {
+                stack.push(expr.receiver());
+                expr.arguments().forEach(stack::push);
+            }
+            case Ast.Expr.ObjectExpr expr -> {
+                expr.fields().forEach(stack::push);
+                expr.methods().forEach(stack::push);
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the node with its children replaced by their frozen
+     * copies, which must already be in the map.
+     */
+    private static Ast copy(Ast ast, Map<Ast, Ast> frozen) {
+        return switch (ast) {
+            case Ast.Source source -> new Ast.Source(get(frozen, source.statements()));
+            case Ast.Stmt.Let stmt -> new Ast.Stmt.Let(stmt.name(), stmt.type(), stmt.value().map(value -> get(frozen, value)));
+            case Ast.Stmt.Def stmt -> new Ast.Stmt.Def(stmt.name(), List.copyOf(stmt.parameters()), List.copyOf(stmt.parameterTypes()), stmt.returnType(), get(frozen, stmt.body()));
+            case Ast.Stmt.If stmt -> new Ast.Stmt.If(get(frozen, stmt.condition()), get(frozen, stmt.thenBody()), get(frozen, stmt.elseBody()));
+            case Ast.Stmt.For stmt -> new Ast.Stmt.For(stmt.name(), get(frozen, stmt.expression()), get(frozen, stmt.body()));
+            case Ast.Stmt.Return stmt -> new Ast.Stmt.Return(stmt.value().map(value -> get(frozen, value)));
+            case Ast.Stmt.Expression stmt -> new Ast.Stmt.Expression(get(frozen, stmt.expression()));
+            case Ast.Stmt.Assignment stmt -> new Ast.Stmt.Assignment(get(frozen, stmt.expression()), get(frozen, stmt.value()));
+            case Ast.Expr.Literal expr -> expr;
+            case Ast.Expr.Group expr -> new Ast.Expr.Group(get(frozen, expr.expression()));
+            case Ast.Expr.Binary expr -> new Ast.Expr.Binary(expr.operator(), get(frozen, expr.left()), get(frozen, expr.right()));
+            case Ast.Expr.Variable expr -> expr;
+            case Ast.Expr.Property expr -> new Ast.Expr.Property(get(frozen, expr.receiver()), expr.name());
+            case Ast.Expr.Function expr -> new Ast.Expr.Function(expr.name(), get(frozen, expr.arguments()));
+            case Ast.Expr.Method expr -> new Ast.Expr.Method(get(frozen, expr.receiver()), expr.name(), get(frozen, expr.arguments()));
+            case Ast.Expr.ObjectExpr expr -> new Ast.Expr.ObjectExpr(expr.name(), get(frozen, expr.fields()), get(frozen, expr.methods()));
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Ast> T get(Map<Ast, Ast> frozen, T ast) {
+        return (T) frozen.get(ast);
+    }
+
+    private static <T extends Ast> List<T> get(Map<Ast, Ast> frozen, List<T> nodes) {
+        return nodes.stream().map(node -> get(frozen, node)).toList();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts (among others) of the cache.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+}
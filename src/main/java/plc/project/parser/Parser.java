@@ -2,35 +2,148 @@ package plc.project.parser;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import plc.project.lexer.LineIndex;
+import plc.project.lexer.SymbolTable;
 import plc.project.lexer.Token;
+import plc.project.lexer.TokenBuffer;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.RandomAccess;
+
+import static plc.project.lexer.SymbolTable.*;
 
 /**
  * This style of parser is called <em>recursive descent</em>. Each rule in our
  * grammar has dedicated function, and references to other rules correspond to
  * calling that function. Recursive rules are therefore supported by actual
- * recursive calls, while operator precedence is encoded via the grammar.
+ * recursive calls, while binary operator precedence is handled by a single
+ * precedence climbing method driven by {@link #BINDING_POWER}.
  *
  * <p>The parser has a similar architecture to the lexer, just with
  * {@link Token}s instead of characters. As before, {@link TokenStream#peek} and
  * {@link TokenStream#match} help with traversing the token stream. Instead of
  * emitting tokens, you will instead need to extract the literal value via
  * {@link TokenStream#get} to be added to the relevant AST.
+ *
+ * <p>Tokens are consumed from a {@link TokenBuffer}, which can be produced
+ * directly by {@link plc.project.lexer.Lexer#lexBuffer()} to avoid creating
+ * intermediate {@link Token}s. A {@code List<Token>} is converted on creation.
+ * The source position of a {@link ParseException} is available through
+ * {@link #position(ParseException)}.
+ *
+ * <p>Since recursion depth grows with the nesting of the input, deeply nested
+ * (e.g. generated) inputs can overflow the call stack. For such inputs,
+ * {@link #parseIterative(String)} produces the same result using a heap
+ * allocated stack (see {@link IterativeParser}).
+ *
+ * <p>Optionally, nodes can be hash-consed by an {@link AstInterner}, sharing
+ * structurally equal subtrees within (and across) parsed sources, and their
+ * source spans recorded in an {@link AstSpans} side table. For large sources
+ * where most functions are never used, {@link #parseLazy()} defers parsing
+ * the bodies of {@code DEF} statements until they are accessed.
  */
 public final class Parser {
 
+    /**
+     * The binding power of each binary operator, indexed by token kind (see
+     * {@link TokenBuffer#kind(int)}), where higher binds more tightly and 0 is
+     * not a binary operator. Adding an operator only requires an entry here.
+     */
+    static final int[] BINDING_POWER = new int[SymbolTable.PREDEFINED];
+
+    static {
+        // logical_expr ::= comparison_expr (('AND' | 'OR') comparison_expr)*
+        BINDING_POWER[AND] = BINDING_POWER[OR] = 1;
+        // comparison_expr ::= additive_expr (('<' | '<=' | '>' | '>=' | '==' | '!=') additive_expr)*
+        BINDING_POWER[LESS] = BINDING_POWER[LESS_EQUAL] = BINDING_POWER[GREATER] = BINDING_POWER[GREATER_EQUAL] = 2;
+        BINDING_POWER[EQUAL] = BINDING_POWER[NOT_EQUAL] = 2;
+        // additive_expr ::= multiplicative_expr (('+' | '-') multiplicative_expr)*
+        BINDING_POWER[PLUS] = BINDING_POWER[MINUS] = 3;
+        // multiplicative_expr ::= secondary_expr (('*' | '/') secondary_expr)*
+        BINDING_POWER[STAR] = BINDING_POWER[SLASH] = 4;
+    }
+
     private final TokenStream tokens;
+    private final Map<Token, Integer> reported; //retaining reported tokens, which are tokens.reported unless lazy
+    private final AstInterner interner; //null unless interning nodes
+    private final AstSpans spans; //null unless recording spans
+    private List<ParseException> errors = null; //only while parsing with recovery
+    private Map<Ast.Stmt, ParseException> placeholders = null; //likewise
+    private boolean lazy = false; //only while parsing with lazy def bodies
 
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.of(tokens));
+    }
+
+    public Parser(TokenBuffer tokens) {
+        this(tokens, null);
+    }
+
+    /**
+     * Creates a parser interning every statement and expression it creates
+     * with the given interner, if not null, so that structurally equal
+     * subtrees are shared (see {@link AstInterner}).
+     */
+    public Parser(TokenBuffer tokens, AstInterner interner) {
+        this(tokens, interner, null);
+    }
+
+    /**
+     * Creates a parser interning nodes as above and recording the span of
+     * every statement and expression it creates in spans, if not null, which
+     * must have been created for the same tokens.
+     */
+    public Parser(TokenBuffer tokens, AstInterner interner, AstSpans spans) {
+        Preconditions.checkArgument(spans == null || spans.tokens() == tokens, "Spans must be recorded for the parsed tokens.");
         this.tokens = new TokenStream(tokens);
+        this.reported = this.tokens.reported;
+        this.interner = interner;
+        this.spans = spans;
+    }
+
+    /**
+     * Creates a parser for a lazily parsed def body starting at the token
+     * index, sharing the tokens of parent. Reported tokens are recorded
+     * separately, as the body may be parsed on another thread, and retained
+     * by parent once parsed (see {@link #retainReported()}).
+     */
+    private Parser(Parser parent, int index) {
+        this.tokens = new TokenStream(parent.tokens.tokens);
+        this.reported = parent.reported;
+        this.tokens.index = index;
+        this.interner = null;
+        this.spans = parent.spans;
+        this.lazy = true;
+    }
+
+    /**
+     * Returns the line and column of the token reported by an exception thrown
+     * by the last parse of this parser, or of the end of input if it has no
+     * token. Returns empty if the token was not reported by the last parse, as
+     * reported tokens are only retained until the next parse.
+     */
+    public Optional<LineIndex.Position> position(ParseException exception) {
+        var buffer = tokens.tokens;
+        if (exception.getToken().isEmpty()) {
+            var end = buffer.size() == 0 ? 0 : buffer.end(buffer.size() - 1);
+            return Optional.of(buffer.lines().position(end));
+        }
+        Integer index;
+        synchronized (reported) {
+            index = reported.get(exception.getToken().get());
+        }
+        return Optional.ofNullable(index).map(i -> buffer.lines().position(buffer.start(i)));
     }
 
     public Ast parse(String rule) throws ParseException {
+        clearReported();
         var ast = switch (rule) {
             case "source" -> parseSource();
             case "stmt" -> parseStmt();
@@ -38,316 +151,531 @@ public final class Parser {
             default -> throw new AssertionError(rule);
         };
         if (tokens.has(0)) {
-            throw new ParseException("Expected end of input.", tokens.getNext());
+            throw new ParseException(Grammar.END_OF_INPUT, tokens.getNext());
         }
         return ast;
     }
 
-    private Ast.Source parseSource() throws ParseException {
-        var statements = new ArrayList<Ast.Stmt>();
+    /**
+     * Equivalent to {@link #parse(String)}, but without recursion, so the
+     * nesting depth of the input is only limited by the heap.
+     */
+    public Ast parseIterative(String rule) throws ParseException {
+        clearReported();
+        return new IterativeParser(tokens, interner, spans).parse(rule);
+    }
+
+    /**
+     * Parses the entire input as a source into the arena, returning the id of
+     * the source node. Nodes are not emitted directly: each top-level
+     * statement is parsed into records as with {@link #parse(String)}, then
+     * flattened with {@link AstArena#add(Ast)} before the next is parsed, so
+     * only the records of a single statement exist at once.
+     */
+    public int parseInto(AstArena arena) throws ParseException {
+        clearReported();
+        var statements = new int[16];
+        var count = 0;
         while (tokens.has(0)) {
-            statements.add(parseStmt());
+            if (count == statements.length) {
+                statements = Arrays.copyOf(statements, 2 * count);
+            }
+            statements[count++] = arena.add(parseStmt());
         }
-        return new Ast.Source(statements);
+        return arena.addSource(Arrays.copyOf(statements, count));
     }
 
-    private Ast.Stmt parseStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    /**
+     * Parses the entire input as a source, deferring the parsing of the body
+     * of each {@link Ast.Stmt.Def} until it is first accessed.
+     *
+     * <p>Instead of parsing a body, its {@code DO} is matched with the
+     * {@code END} at the same {@code DO ... END} depth and the tokens between
+     * are checked to form complete statements (see {@link StatementScanner}).
+     * The body is then a list which parses these tokens on first access,
+     * again with lazy def bodies. Bodies failing this check are parsed
+     * immediately, so such errors are thrown here as with {@link #parse}.
+     * Other errors within a body are thrown on access, wrapped in an
+     * {@link UncheckedParseException}, and can still be located with
+     * {@link #position(ParseException)}.
+     *
+     * <p>As interning a def requires its body, this cannot be combined with
+     * an {@link AstInterner}. Spans of body nodes are recorded on access.
+     * Bodies may be accessed concurrently, and each is parsed at most once.
+     */
+    public Ast.Source parseLazy() throws ParseException {
+        Preconditions.checkState(interner == null, "Lazy def bodies cannot be interned.");
+        clearReported();
+        lazy = true;
+        try {
+            var source = parseSource();
+            if (tokens.has(0)) {
+                throw new ParseException(Grammar.END_OF_INPUT, tokens.getNext());
+            }
+            return source;
+        } finally {
+            lazy = false;
+        }
     }
 
-    private Ast.Stmt parseLetStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    /**
+     * Parses the entire input as a source, recording each statement which
+     * fails to parse instead of throwing. A failed statement is replaced by
+     * an error placeholder, which is a new {@code NIL;} statement (an
+     * {@link Ast.Stmt.Expression} of an {@link Ast.Expr.Literal} with a null
+     * value), so the partial source only contains ordinary nodes. Placeholders
+     * are distinguished from actual {@code NIL;} statements by identity (see
+     * {@link Result#error(Ast.Stmt)}).
+     *
+     * <p>After an error, tokens from the start of the failed statement are
+     * skipped until a statement boundary: after a {@code ;} or before
+     * {@code END}, {@code ELSE}, {@code LET}, {@code DEF}, {@code IF},
+     * {@code FOR} or {@code RETURN}. Nested {@code DO ... END} blocks are
+     * skipped entirely, so an error within the header of a compound statement
+     * skips the whole statement. Errors within the bodies of {@code DEF},
+     * {@code IF} and {@code FOR} statements are recovered within that body.
+     */
+    public Result parseRecovering() {
+        clearReported();
+        errors = new ArrayList<>();
+        placeholders = new IdentityHashMap<>();
+        try {
+            var source = parseSource();
+            return new Result(source, errors, Collections.unmodifiableMap(placeholders));
+        } catch (ParseException e) {
+            throw new AssertionError(e); //statements of a source are always recovered
+        } finally {
+            errors = null;
+            placeholders = null;
+        }
     }
 
-    private Ast.Stmt parseDefStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    /**
+     * The result of {@link #parseRecovering()}, containing the (partial)
+     * source and all errors in input order, along with the error of each
+     * placeholder keyed by identity.
+     */
+    public record Result(Ast.Source source, List<ParseException> errors, Map<Ast.Stmt, ParseException> placeholders) {
+
+        /**
+         * Returns the error replaced by the statement, or empty if it is not
+         * a placeholder.
+         */
+        public Optional<ParseException> error(Ast.Stmt stmt) {
+            return Optional.ofNullable(placeholders.get(stmt));
+        }
+
     }
 
-    private Ast.Stmt parseIfStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    /**
+     * Parses a single statement starting at the token index, for
+     * {@link IncrementalParser}. The index following the statement is then
+     * available via {@link #index()}.
+     */
+    Ast.Stmt parseStmtAt(int index) throws ParseException {
+        tokens.index = index;
+        return parseStmt();
     }
 
-    private Ast.Stmt parseForStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    int index() {
+        return tokens.index;
     }
 
-    private Ast.Stmt parseReturnStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    private void clearReported() {
+        synchronized (reported) {
+            reported.clear();
+        }
     }
 
-    private Ast.Stmt parseExpressionOrAssignmentStmt() throws ParseException {
-        throw new UnsupportedOperationException("TODO"); //TODO
+    /**
+     * Adds the tokens reported by this lazy parser to those of the parser
+     * which created it, under its lock.
+     */
+    private void retainReported() {
+        synchronized (reported) {
+            reported.putAll(tokens.reported);
+        }
     }
 
-    // expr ::= logical_expr
-    private Ast.Expr parseExpr() throws ParseException {
-        return parseLogicalExpr();
+    /**
+     * Returns the node (or its canonical instance, if interning), recording
+     * its span from the token index start to the current index if enabled.
+     */
+    private <T extends Ast> T node(int start, T node) {
+        if (interner != null) {
+            node = interner.intern(node);
+        }
+        if (spans != null) {
+            spans.record(node, start, tokens.index);
+        }
+        return node;
     }
 
-    // logical_expr ::= comparison_expr (('AND' | 'OR') comparison_expr)*
-    private Ast.Expr parseLogicalExpr() throws ParseException {
-        Ast.Expr left = parseComparisonExpr();
-        while (tokens.match("AND") || tokens.peek("OR")) {
-            String operator = tokens.get(-1).literal();
-            Ast.Expr right = parseComparisonExpr();
-            left = new Ast.Expr.Binary(operator, left, right);
+    // source ::= stmt*
+    private Ast.Source parseSource() throws ParseException {
+        var statements = new ArrayList<Ast.Stmt>();
+        while (tokens.has(0)) {
+            statements.add(parseBodyStmt());
         }
-        return left;
+        return new Ast.Source(statements);
     }
 
-    // comparison_expr ::= additive_expr (('<' | '<=' | '>' | '>=' | '==' | '!=') additive_expr)*
-    private Ast.Expr parseComparisonExpr() throws ParseException {
-        Ast.Expr left = parseAdditiveExpr();
+    /**
+     * Parses a statement within a source or body, recovering from errors
+     * (see {@link #parseRecovering()}) if enabled.
+     */
+    private Ast.Stmt parseBodyStmt() throws ParseException {
+        if (errors == null) {
+            return parseStmt();
+        }
+        var start = tokens.index;
+        try {
+            return parseStmt();
+        } catch (ParseException e) {
+            synchronize(start);
+            var placeholder = new Ast.Stmt.Expression(new Ast.Expr.Literal(null));
+            errors.add(e);
+            placeholders.put(placeholder, e);
+            return placeholder;
+        }
+    }
 
-        while (tokens.match("<") || tokens.peek("<=") || tokens.peek(">") || tokens.peek(">=") || tokens.peek("==") || tokens.peek("!=")) {
-            String operator = tokens.get(-1).literal();
-            Ast.Expr right = parseAdditiveExpr();
-            left = new Ast.Expr.Binary(operator, left, right);
+    /**
+     * Skips tokens from the start of a statement until the next statement
+     * boundary, always skipping at least one token.
+     */
+    private void synchronize(int start) {
+        tokens.index = start;
+        var depth = 0;
+        while (tokens.has(0)) {
+            if (tokens.peek(DO)) {
+                depth++;
+            } else if (tokens.peek(END) && depth > 0) {
+                depth--;
+                if (depth == 0) {
+                    tokens.match(END);
+                    return;
+                }
+            } else if (depth == 0 && tokens.index > start) {
+                if (tokens.match(SEMICOLON)) {
+                    return;
+                } else if (tokens.peek(END) || tokens.peek(ELSE) || tokens.peek(LET) || tokens.peek(DEF)
+                    || tokens.peek(IF) || tokens.peek(FOR) || tokens.peek(RETURN)) {
+                    return;
+                }
+            }
+            tokens.index++;
         }
+    }
 
-        return left;
+    // stmt ::= let_stmt | def_stmt | if_stmt | for_stmt | return_stmt | expression_or_assignment_stmt
+    private Ast.Stmt parseStmt() throws ParseException {
+        return switch (Grammar.stmt(tokens)) {
+            case LET -> parseLetStmt();
+            case DEF -> parseDefStmt();
+            case IF -> parseIfStmt();
+            case FOR -> parseForStmt();
+            case RETURN -> parseReturnStmt();
+            case EXPRESSION_OR_ASSIGNMENT -> parseExpressionOrAssignmentStmt();
+        };
     }
 
-    // additive_expr ::= multiplicative_expr (('+' | '-') multiplicative_expr)*
-    private Ast.Expr parseAdditiveExpr() throws ParseException {
-        Ast.Expr left = parseMultiplicativeExpr();
+    // let_stmt ::= 'LET' identifier (':' identifier)? ('=' expr)? ';'
+    private Ast.Stmt.Let parseLetStmt() throws ParseException {
+        var start = tokens.index;
+        var header = Grammar.letHeader(tokens);
+        Optional<Ast.Expr> value = Optional.empty();
+        if (tokens.match(ASSIGN)) {
+            value = Optional.of(parseExpr());
+        }
+        tokens.expect(SEMICOLON, Grammar.LET_SEMICOLON);
+        return node(start, new Ast.Stmt.Let(header.name(), header.type(), value));
+    }
 
-        while (tokens.peek("+") || tokens.peek("-")) {
-            String operator = tokens.get(0).literal();
-            tokens.match(operator);
-            Ast.Expr right = parseMultiplicativeExpr();
-            left = new Ast.Expr.Binary(operator, left, right);
+    // def_stmt ::= 'DEF' identifier '(' (identifier (':' identifier)? (',' identifier (':' identifier)?)*)? ')' (':' identifier)? 'DO' stmt* 'END'
+    private Ast.Stmt.Def parseDefStmt() throws ParseException {
+        var start = tokens.index;
+        var header = Grammar.defHeader(tokens);
+        var end = lazy ? findLazyEnd(tokens.index - 1) : -1;
+        if (end != -1) {
+            var body = new LazyBody(this, tokens.index, end);
+            tokens.index = end + 1;
+            return node(start, new Ast.Stmt.Def(header.name(), header.parameters(), header.parameterTypes(), header.returnType(), body));
         }
+        var body = new ArrayList<Ast.Stmt>();
+        while (tokens.has(0) && !tokens.peek(END)) {
+            body.add(parseBodyStmt());
+        }
+        tokens.expect(END, Grammar.DEF_END);
+        return node(start, new Ast.Stmt.Def(header.name(), header.parameters(), header.parameterTypes(), header.returnType(), body));
+    }
 
-        return left;
+    /**
+     * Returns the index of the END closing the def body starting with the DO
+     * at block, or -1 if the body does not consist of complete statements and
+     * must be parsed immediately.
+     */
+    private int findLazyEnd(int block) {
+        var buffer = tokens.tokens;
+        var end = StatementScanner.findEnd(buffer, block, buffer.size());
+        return end != -1 && StatementScanner.split(buffer, block + 1, end) != null ? end : -1;
+    }
+
+    // if_stmt ::= 'IF' expr 'DO' stmt* ('ELSE' stmt*)? 'END'
+    private Ast.Stmt.If parseIfStmt() throws ParseException {
+        var start = tokens.index;
+        tokens.expect(IF, Grammar.IF_START);
+        var condition = parseExpr();
+        tokens.expect(DO, Grammar.IF_DO);
+        var thenBody = new ArrayList<Ast.Stmt>();
+        while (tokens.has(0) && !tokens.peek(ELSE) && !tokens.peek(END)) {
+            thenBody.add(parseBodyStmt());
+        }
+        var elseBody = new ArrayList<Ast.Stmt>();
+        if (tokens.match(ELSE)) {
+            while (tokens.has(0) && !tokens.peek(END)) {
+                elseBody.add(parseBodyStmt());
+            }
+        }
+        tokens.expect(END, Grammar.IF_END);
+        return node(start, new Ast.Stmt.If(condition, thenBody, elseBody));
     }
 
-    // multiplicative_expr ::= secondary_expr (('*' | '/') secondary_expr)*
-    private Ast.Expr parseMultiplicativeExpr() throws ParseException {
-        Ast.Expr left = parseSecondaryExpr();
+    // for_stmt ::= 'FOR' identifier 'IN' expr 'DO' stmt* 'END'
+    private Ast.Stmt.For parseForStmt() throws ParseException {
+        var start = tokens.index;
+        var name = Grammar.forHeader(tokens);
+        var expression = parseExpr();
+        tokens.expect(DO, Grammar.FOR_DO);
+        var body = new ArrayList<Ast.Stmt>();
+        while (tokens.has(0) && !tokens.peek(END)) {
+            body.add(parseBodyStmt());
+        }
+        tokens.expect(END, Grammar.FOR_END);
+        return node(start, new Ast.Stmt.For(name, expression, body));
+    }
 
-        while (tokens.peek("*") || tokens.peek("/")) {
-            String operator = tokens.get(0).literal();
-            tokens.match(operator);
-            Ast.Expr right = parseSecondaryExpr();
-            left = new Ast.Expr.Binary(operator, left, right); // keep expanding on left while more operators exist
+    // return_stmt ::= 'RETURN' expr? ('IF' expr)? ';'
+    private Ast.Stmt parseReturnStmt() throws ParseException {
+        var start = tokens.index;
+        tokens.expect(RETURN, Grammar.RETURN_START);
+        Optional<Ast.Expr> value = Optional.empty();
+        if (!tokens.peek(IF) && !tokens.peek(SEMICOLON)) {
+            value = Optional.of(parseExpr());
         }
+        Optional<Ast.Expr> condition = Optional.empty();
+        if (tokens.match(IF)) {
+            condition = Optional.of(parseExpr());
+        }
+        tokens.expect(SEMICOLON, Grammar.RETURN_SEMICOLON);
+        var stmt = node(start, new Ast.Stmt.Return(value));
+        return condition.isPresent() ? node(start, new Ast.Stmt.If(condition.get(), List.of(stmt), List.of())) : stmt;
+    }
+
+    // expression_or_assignment_stmt ::= expr ('=' expr)? ';'
+    private Ast.Stmt parseExpressionOrAssignmentStmt() throws ParseException {
+        var start = tokens.index;
+        var expression = parseExpr();
+        Ast.Stmt stmt = new Ast.Stmt.Expression(expression);
+        if (tokens.match(ASSIGN)) {
+            stmt = new Ast.Stmt.Assignment(expression, parseExpr());
+        }
+        tokens.expect(SEMICOLON, Grammar.STATEMENT_SEMICOLON);
+        return node(start, stmt);
+    }
+
+    // expr ::= logical_expr
+    private Ast.Expr parseExpr() throws ParseException {
+        return parseBinaryExpr(0);
+    }
 
+    /**
+     * Parses binary expressions by precedence climbing, replacing a method
+     * per precedence level. Starting with a secondary expression, operators
+     * binding more tightly than minimum are repeatedly consumed along with
+     * their right operand, which is parsed with the operator's own binding
+     * power (thus only containing tighter operators). Operators of the same
+     * binding power are therefore left-associative.
+     */
+    private Ast.Expr parseBinaryExpr(int minimum) throws ParseException {
+        var start = tokens.index;
+        var left = parseSecondaryExpr();
+        while (tokens.has(0)) {
+            var kind = tokens.getKind(0);
+            var power = kind >= 0 && kind < BINDING_POWER.length ? BINDING_POWER[kind] : 0;
+            if (power <= minimum) {
+                break;
+            }
+            var operator = tokens.getLiteral(0);
+            tokens.match(kind);
+            var right = parseBinaryExpr(power);
+            left = node(start, new Ast.Expr.Binary(operator, left, right));
+        }
         return left;
     }
 
     // secondary_expr ::= primary_expr property_or_method*
     private Ast.Expr parseSecondaryExpr() throws ParseException {
+        var start = tokens.index;
         var primaryExpr = parsePrimaryExpr();
-        while (tokens.peek(".")) {
-            primaryExpr = parsePropertyOrMethod(primaryExpr);
+        while (tokens.match(DOT)) {
+            primaryExpr = parsePropertyOrMethod(primaryExpr, start);
         }
         return primaryExpr;
     }
 
     // property_or_method ::= '.' identifier ('(' (expr (',' expr)*)? ')')?
-    private Ast.Expr parsePropertyOrMethod(Ast.Expr receiver) throws ParseException {
-        if (!tokens.match(".")) {
-            throw new ParseException("Expected '.' in expression.", tokens.getNext());
+    private Ast.Expr parsePropertyOrMethod(Ast.Expr receiver, int start) throws ParseException {
+        var name = tokens.expectIdentifier(Grammar.EXPRESSION_IDENTIFIER);
+        if (tokens.match(LEFT_PAREN)) {
+            var arguments = parseArguments();
+            return node(start, new Ast.Expr.Method(receiver, name, arguments));
         }
+        return node(start, new Ast.Expr.Property(receiver, name));
+    }
 
-        if (!tokens.has(0)) {
-            throw new ParseException("Expected identifier in expression.", tokens.getNext());
-        }
-
-        var token = tokens.get(0);
-
-        if (!tokens.match(Token.Type.IDENTIFIER)) {
-            throw new ParseException("Expected identifier in expression.", tokens.getNext());
-        }
-
-        String name = token.literal();
-
-        if (tokens.match("(")) {
-            List<Ast.Expr> args = new ArrayList<>();
-            if (!tokens.peek(")")) {
-                args.add(parseExpr());
-                while (tokens.match(",")) {
-                    args.add(parseExpr());
-                }
-            }
-
-            if (!tokens.match(")")) {
-                throw new ParseException("Missing closing parentheses in expression.", tokens.getNext());
+    /**
+     * Parses the arguments of a function or method following its
+     * {@code '('}, through the closing {@code ')'}.
+     */
+    private List<Ast.Expr> parseArguments() throws ParseException {
+        var arguments = new ArrayList<Ast.Expr>();
+        if (!tokens.peek(RIGHT_PAREN)) {
+            arguments.add(parseExpr());
+            while (tokens.match(COMMA)) {
+                arguments.add(parseExpr());
             }
-
-            return new Ast.Expr.Method(receiver, name, args);
         }
-
-        return new Ast.Expr.Property(receiver, name);
+        tokens.expect(RIGHT_PAREN, Grammar.ARGUMENTS_END);
+        return arguments;
     }
 
     // primary_expr ::= literal_expr | group_expr | object_expr | variable_or_function_expr
     private Ast.Expr parsePrimaryExpr() throws ParseException {
-        if (!tokens.has(0)) {
-            throw new ParseException("Expected expression, found end of input.", tokens.getNext());
-        }
-        var token = tokens.get(0);
-        List<Token.Type> types = List.of(Token.Type.INTEGER, Token.Type.DECIMAL, Token.Type.CHARACTER, Token.Type.STRING);
-
-        if (types.contains(token.type()) || token.literal().equals("NIL") || token.literal().equals("TRUE") || token.literal().equals("FALSE")) {
-            return parseLiteralExpr();
-        } else if (token.literal().equals("(")) {
-            return parseGroupExpr();
-        } else if (token.literal().equals("OBJECT")) {
-            return parseObjectExpr();
-        } else if (token.type().equals(Token.Type.IDENTIFIER)) {
-            return parseVariableOrFunctionExpr();
-        }
-        throw new ParseException("No Literal, Group, Object, or Variable/Function Expression found", tokens.getNext());
+        return switch (Grammar.primary(tokens)) {
+            case LITERAL -> parseLiteralExpr();
+            case GROUP -> parseGroupExpr();
+            case OBJECT -> parseObjectExpr();
+            case VARIABLE_OR_FUNCTION -> parseVariableOrFunctionExpr();
+        };
     }
 
     // literal_expr ::= 'NIL' | 'TRUE' | 'FALSE' | integer | decimal | character | string
     private Ast.Expr parseLiteralExpr() throws ParseException {
-        var token = tokens.get(0);
-        tokens.match(token.type());
-        if (token.type().equals(Token.Type.IDENTIFIER)) {
-            if (token.literal().equals("NIL")) {
-                return new Ast.Expr.Literal(null);
-            } else if (token.literal().equals("TRUE")) {
-                return new Ast.Expr.Literal(true); // or Boolean.TRUE
-            } else if (token.literal().equals("FALSE")) {
-                return new Ast.Expr.Literal(false);
-            }
-            return new Ast.Expr.Variable(token.literal());
-        } else if (token.type().equals(Token.Type.INTEGER)) {
-            if (token.literal().contains("e")) {
-                return new Ast.Expr.Literal(new BigDecimal(token.literal()));
-            } else {
-                return new Ast.Expr.Literal(new BigInteger(token.literal()));
-            }
-        } else if (token.type().equals(Token.Type.DECIMAL)) {
-            return new Ast.Expr.Literal(new BigDecimal(token.literal()));
-        } else if (token.type().equals(Token.Type.CHARACTER)) {
-            return new Ast.Expr.Literal(token.literal().charAt(1)); // RN this and string are removing the quotes ' or " wrapping the values, dont know if thats supposed to be the case or not
-        } else if (token.type().equals(Token.Type.STRING)) {
-            String literal = token.literal().substring(1, token.literal().length() - 1);
-            StringBuilder sb = new StringBuilder();
-
-            for (int i = 0; i < literal.length(); i++) {
-                char c = literal.charAt(i);
-                if (c == '\\' && i < literal.length() - 1) {
-                    char next = literal.charAt(++i);
-                    switch (next) {
-                        case 'n' -> sb.append('\n');
-                        case 'r' -> sb.append('\r');
-                        case 't' -> sb.append('\t');
-                        case '\\' -> sb.append('\\');
-                        case '\'' -> sb.append('\'');
-                        case '"' -> sb.append('"');
-                        default -> sb.append(next);
-                    }
-                } else {
-                    sb.append(c);
-                }
-            }
-
-            String newLiteral = sb.toString();
-
-            return new Ast.Expr.Literal(newLiteral);
-        }
-        throw new ParseException("Expected a literal expression.", Optional.of(token)); // Might have to be token instead of tokens.getNext() since we already took and consumed it
+        var start = tokens.index;
+        return node(start, Grammar.literal(tokens));
     }
 
     // group_expr ::= '(' expr ')'
     private Ast.Expr parseGroupExpr() throws ParseException {
-        if (!tokens.match("(")) {
-            throw new ParseException("Missing opening parentheses in group expression.", tokens.getNext());
-        }
+        var start = tokens.index;
+        tokens.expect(LEFT_PAREN, Grammar.GROUP_START);
         var expr = parseExpr();
-        if (!tokens.match(")")) {
-           throw new ParseException("Missing closing parentheses in group expression.", tokens.getNext()); // Check index here
-        }
-        return new Ast.Expr.Group(expr);
+        tokens.expect(RIGHT_PAREN, Grammar.GROUP_END);
+        return node(start, new Ast.Expr.Group(expr));
     }
 
     // object_expr ::= 'OBJECT' identifier? 'DO' let_stmt* def_stmt* 'END'
     private Ast.Expr parseObjectExpr() throws ParseException {
-        // if (tokens.match("OBJECT")) { var token = tokens.get(-1);} I realized after you could just do this but want to see if my original works
-        var token = tokens.get(0);
-
-        String name = "";
-
-        if (!token.literal().equals("OBJECT")) {
-            throw new ParseException("Expected a object expression.", Optional.of(token));
-        } else {
-            tokens.match(token.type());
+        var start = tokens.index;
+        var name = Grammar.objectHeader(tokens);
+        var fields = new ArrayList<Ast.Stmt.Let>();
+        while (tokens.peek(LET)) {
+            fields.add(parseLetStmt());
         }
-
-        if (tokens.peek("DO")) {
-            tokens.match("DO");
-            name = tokens.get(0).literal();
-        } else if (tokens.peek(Token.Type.IDENTIFIER)) {
-            name = tokens.get(0).literal();
-            tokens.match(Token.Type.IDENTIFIER);
-            if (!tokens.match("DO")) {
-                throw new ParseException("Missing 'DO' after identifier", tokens.getNext());
-            }
-        } else {
-            throw new ParseException("Missing 'DO' in Object expression", tokens.getNext());
-        }
-
-        List<Ast.Stmt.Let> let_stmts = new ArrayList<>();
-        while (tokens.get(0).literal().equals("LET")) {
-            // tokens.match("LET"); we will consume it in parseLetStmt()
-            let_stmts.add((Ast.Stmt.Let) parseLetStmt());
+        var methods = new ArrayList<Ast.Stmt.Def>();
+        while (tokens.peek(DEF)) {
+            methods.add(parseDefStmt());
         }
-
-        List<Ast.Stmt.Def> def_stmts = new ArrayList<>();
-        while (tokens.get(0).literal().equals("DEF")) {
-            // tokens.match("LET"); we will consume it in parseLetStmt()
-            def_stmts.add((Ast.Stmt.Def) parseDefStmt());
-        }
-
-        if (!tokens.match("END")) {
-            throw new ParseException("Missing 'END' in Object expression", tokens.getNext());
-        }
-
-        return new Ast.Expr.ObjectExpr(Optional.ofNullable(name), let_stmts, def_stmts);
+        tokens.expect(END, Grammar.OBJECT_END);
+        return node(start, new Ast.Expr.ObjectExpr(name, fields, methods));
     }
 
     // variable_or_function_expr ::= identifier ('(' (expr (',' expr)*)? ')')?
     private Ast.Expr parseVariableOrFunctionExpr() throws ParseException {
-        var token = tokens.get(0);
-        if (!tokens.match(Token.Type.IDENTIFIER)) {
-            throw new ParseException("Expected identifier in expression.", tokens.getNext());
+        var start = tokens.index;
+        var name = tokens.expectIdentifier(Grammar.EXPRESSION_IDENTIFIER);
+        if (tokens.match(LEFT_PAREN)) {
+            var arguments = parseArguments();
+            return node(start, new Ast.Expr.Function(name, arguments));
         }
+        return node(start, new Ast.Expr.Variable(name));
+    }
 
-        String identifier = token.literal();
+    /**
+     * The body of a def parsed by {@link #parseLazy()}, containing the
+     * statements of the tokens [start, end) which are parsed on first access.
+     * Bodies may be accessed from any thread, and are parsed at most once:
+     * an error is thrown again by later accesses. Once parsed, the parent
+     * parser (and thus its tokens) is no longer retained.
+     */
+    private static final class LazyBody extends AbstractList<Ast.Stmt> implements RandomAccess {
+
+        private Parser parent; //null once parsed
+        private final int start;
+        private final int end;
+        private List<Ast.Stmt> statements = null;
+        private UncheckedParseException error = null;
+
+        private LazyBody(Parser parent, int start, int end) {
+            this.parent = parent;
+            this.start = start;
+            this.end = end;
+        }
 
-        if (tokens.match("(")) {
-            List<Ast.Expr> args = new ArrayList<>();
-            if (!tokens.peek(")")) {
-                args.add(parseExpr());
-                while (tokens.match(",")) {
-                    args.add(parseExpr());
+        private synchronized List<Ast.Stmt> statements() {
+            if (parent != null) {
+                var parser = new Parser(parent, start);
+                var parsed = new ArrayList<Ast.Stmt>();
+                try {
+                    while (parser.tokens.index < end) {
+                        parsed.add(parser.parseStmt());
+                    }
+                    if (parser.tokens.index != end) {
+                        throw new ParseException(Grammar.DEF_END, parser.tokens.getNext());
+                    }
+                    statements = Collections.unmodifiableList(parsed);
+                } catch (ParseException e) {
+                    error = new UncheckedParseException(e);
                 }
+                parser.retainReported();
+                parent = null;
             }
-
-            if (!tokens.match(")")) {
-                throw new ParseException("Missing closing parentheses in expression.", tokens.getNext());
+            if (error != null) {
+                throw error;
             }
+            return statements;
+        }
 
-            return new Ast.Expr.Function(identifier, args);
+        @Override
+        public Ast.Stmt get(int index) {
+            return statements().get(index);
+        }
+
+        @Override
+        public int size() {
+            return statements().size();
         }
 
-        return new Ast.Expr.Variable(identifier);
     }
 
-    private static final class TokenStream {
+    static final class TokenStream {
 
-        private final List<Token> tokens;
+        private final TokenBuffer tokens;
+        private final Map<Token, Integer> reported = new IdentityHashMap<>();
         private int index = 0;
 
-        private TokenStream(List<Token> tokens) {
+        private TokenStream(TokenBuffer tokens) {
             this.tokens = tokens;
         }
 
+        /**
+         * Returns the index of the next token.
+         */
+        public int index() {
+            return index;
+        }
+
         /**
          * Returns true if there is a token at (index + offset).
          */
@@ -364,42 +692,119 @@ public final class Parser {
         }
 
         /**
-         * Returns the next token, if present.
+         * Returns the type of the token at (index + offset).
+         */
+        public Token.Type getType(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.type(index + offset);
+        }
+
+        /**
+         * Returns the kind of the token at (index + offset), which is -1 for
+         * tokens other than identifiers and operators.
+         */
+        public int getKind(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.kind(index + offset);
+        }
+
+        /**
+         * Returns the literal of the token at (index + offset), which is the
+         * canonical instance for identifiers and operators.
+         */
+        public String getLiteral(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.literal(index + offset);
+        }
+
+        /**
+         * Returns the value of the number token at (index + offset), decoded
+         * without creating its literal.
+         */
+        public Number getNumber(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.number(index + offset);
+        }
+
+        /**
+         * Returns the decoded payload of the string token at (index + offset).
+         */
+        public CharSequence getString(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.string(index + offset);
+        }
+
+        /**
+         * Returns the decoded character of the character token at
+         * (index + offset).
+         */
+        public char getCharacter(int offset) {
+            Preconditions.checkState(has(offset));
+            return tokens.character(index + offset);
+        }
+
+        /**
+         * Returns the next token, if present, for reporting an error. The
+         * token's index is recorded for {@link Parser#position}.
          */
         public Optional<Token> getNext() {
-            return index < tokens.size() ? Optional.of(tokens.get(index)) : Optional.empty();
+            if (index >= tokens.size()) {
+                return Optional.empty();
+            }
+            var token = tokens.get(index);
+            synchronized (reported) {
+                reported.put(token, index);
+            }
+            return Optional.of(token);
         }
 
         /**
-         * Returns true if the next characters match their corresponding
-         * pattern. Each pattern is either a {@link Token.Type}, matching tokens
-         * of that type, or a {@link String}, matching tokens with that literal.
-         * In effect, {@code new Token(Token.Type.IDENTIFIER, "literal")} is
-         * matched by both {@code peek(Token.Type.IDENTIFIER)} and
-         * {@code peek("literal")}.
+         * Matches the next token if it is of the given kind, otherwise
+         * throwing a {@link ParseException} with the message reporting the
+         * next token (see {@link #getNext()}).
          */
-        public boolean peek(Object... patterns) {
-            if (!has(patterns.length - 1)) {
-                return false;
+        public void expect(int kind, String message) throws ParseException {
+            if (!match(kind)) {
+                throw new ParseException(message, getNext());
             }
-            for (int offset = 0; offset < patterns.length; offset++) {
-                var token = tokens.get(index + offset);
-                var pattern = patterns[offset];
-                Preconditions.checkState(pattern instanceof Token.Type || pattern instanceof String, pattern);
-                if (!token.type().equals(pattern) && !token.literal().equals(pattern)) {
-                    return false;
-                }
+        }
+
+        /**
+         * Matches the next token if it is an identifier, returning its
+         * literal, otherwise throwing as with {@link #expect(int, String)}.
+         */
+        public String expectIdentifier(String message) throws ParseException {
+            if (!match(Token.Type.IDENTIFIER)) {
+                throw new ParseException(message, getNext());
             }
-            return true;
+            return getLiteral(-1);
         }
 
         /**
-         * Equivalent to peek, but also advances the token stream.
+         * Returns true if the next token is of the given kind, such as
+         * {@link SymbolTable#LET} or {@link SymbolTable#LEFT_PAREN}, which
+         * compares ints and does not allocate.
          */
-        public boolean match(Object... patterns) {
-            var peek = peek(patterns);
+        public boolean peek(int kind) {
+            return has(0) && tokens.kind(index) == kind;
+        }
+
+        public boolean peek(Token.Type type) {
+            return has(0) && tokens.type(index) == type;
+        }
+
+        public boolean match(int kind) {
+            var peek = peek(kind);
+            if (peek) {
+                index++;
+            }
+            return peek;
+        }
+
+        public boolean match(Token.Type type) {
+            var peek = peek(type);
             if (peek) {
-                index += patterns.length;
+                index++;
             }
             return peek;
         }
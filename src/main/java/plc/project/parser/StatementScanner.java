@@ -0,0 +1,172 @@
+package plc.project.parser;
+
+import plc.project.lexer.Token;
+import plc.project.lexer.TokenBuffer;
+
+import java.util.Arrays;
+
+import static plc.project.lexer.SymbolTable.*;
+
+/**
+ * Finds statement boundaries in a token buffer without parsing, for
+ * {@link IncrementalParser}, {@link ParallelParser}, {@link StreamingParser}
+ * and lazily parsed {@code DEF} bodies (see {@link Parser#parseLazy()}).
+ *
+ * <p>Statements starting with {@code DEF}, {@code IF} or {@code FOR} end at
+ * the {@code END} closing their block, and all others at the next {@code ;}
+ * outside of any {@code DO ... END} block (such as an object expression).
+ * For valid input these are exactly the statements of the parser, while for
+ * invalid input callers must verify the boundaries against the parser.
+ */
+final class StatementScanner {
+
+    private StatementScanner() {}
+
+    /**
+     * Returns the start of each statement in the tokens [from, to) followed
+     * by to, or null if a statement does not end before to.
+     */
+    static int[] split(TokenBuffer tokens, int from, int to) {
+        var bounds = new int[16];
+        var count = 0;
+        bounds[count++] = from;
+        for (var index = from; index < to; ) {
+            index = skipStatement(tokens, index, to);
+            if (index == -1) {
+                return null;
+            }
+            if (count == bounds.length) {
+                bounds = Arrays.copyOf(bounds, 2 * count);
+            }
+            bounds[count++] = index;
+        }
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Returns the index following the statement starting at index, or -1 if
+     * it does not end before to.
+     */
+    static int skipStatement(TokenBuffer tokens, int index, int to) {
+        var statement = new Statement(tokens, index);
+        for (int i = index; i < to; i++) {
+            if (statement.ends(tokens, i)) {
+                return statement.unmatched() ? -1 : i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the DO starting the block of the compound statement
+     * in [from, to), skipping object expressions in its header.
+     */
+    static int findBlock(TokenBuffer tokens, int from, int to) {
+        var depth = 0;
+        for (int i = from; i < to; i++) {
+            var kind = tokens.kind(i);
+            if (kind == DO) {
+                if (depth == 0 && !isObjectBlock(tokens, i)) {
+                    return i;
+                }
+                depth++;
+            } else if (kind == END) {
+                depth--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the END closing the block starting with the DO at
+     * block, or -1 if it is not closed before to.
+     */
+    static int findEnd(TokenBuffer tokens, int block, int to) {
+        var depth = 0;
+        for (int i = block; i < to; i++) {
+            var kind = tokens.kind(i);
+            if (kind == DO) {
+                depth++;
+            } else if (kind == END && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the ELSE of the if statement block [block, end), or
+     * -1 if there is none.
+     */
+    static int findElse(TokenBuffer tokens, int block, int end) {
+        var depth = 0;
+        for (int i = block + 1; i < end; i++) {
+            var kind = tokens.kind(i);
+            if (kind == DO) {
+                depth++;
+            } else if (kind == END) {
+                depth--;
+            } else if (kind == ELSE && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The state of scanning a single statement one token at a time, for
+     * {@link StreamingParser}, whose tokens arrive incrementally.
+     */
+    static final class Statement {
+
+        private final boolean compound;
+        private boolean opened = false;
+        private int depth = 0;
+        private boolean unmatched = false;
+
+        /**
+         * Starts scanning the statement starting at index.
+         */
+        Statement(TokenBuffer tokens, int index) {
+            var kind = tokens.kind(index);
+            this.compound = kind == DEF || kind == IF || kind == FOR;
+        }
+
+        /**
+         * Scans the next token of the statement at index, returning true if
+         * the statement ends with it.
+         */
+        boolean ends(TokenBuffer tokens, int index) {
+            var kind = tokens.kind(index);
+            if (kind == DO) {
+                opened |= compound && depth == 0 && !isObjectBlock(tokens, index);
+                depth++;
+            } else if (kind == END && --depth <= 0) {
+                unmatched = depth < 0;
+                return unmatched || opened;
+            } else if (kind == SEMICOLON && depth == 0 && !compound) {
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns true if the statement ended at an END without a matching
+         * DO, which is an error.
+         */
+        boolean unmatched() {
+            return unmatched;
+        }
+
+    }
+
+    /**
+     * Returns true if the DO at index starts an object expression, i.e.
+     * follows {@code OBJECT} or {@code OBJECT name}.
+     */
+    private static boolean isObjectBlock(TokenBuffer tokens, int index) {
+        return index >= 1 && tokens.kind(index - 1) == OBJECT
+            || index >= 2 && tokens.type(index - 1) == Token.Type.IDENTIFIER && tokens.kind(index - 2) == OBJECT;
+    }
+
+}
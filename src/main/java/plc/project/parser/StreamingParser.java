@@ -0,0 +1,136 @@
+package plc.project.parser;
+
+import plc.project.lexer.Lexer;
+import plc.project.lexer.Token;
+import plc.project.lexer.TokenBuffer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parses a source one top-level statement at a time, pulling tokens lazily
+ * (e.g. from {@link Lexer#iterator()} of a streamed input). Only the tokens
+ * of the statement being parsed are retained, so combined with a streaming
+ * lexer, peak memory depends on the largest statement and not the input size.
+ * The statements are the same as those of {@link Parser#parse(String)} for
+ * {@code "source"}, including the first error.
+ *
+ * <p>Tokens are pulled into a window up to the next likely statement
+ * boundary, found by {@link StatementScanner} as they arrive, and the
+ * statement at the start of the window is parsed. The window is a single
+ * {@link TokenBuffer#window()} reused for every statement, from which parsed
+ * tokens are removed. Parsing a statement never examines tokens
+ * past its final {@code ;} or {@code END}, and since the parser does not
+ * backtrack, running out of tokens can only cause an error at the end of the
+ * window. Such errors, which are only possible for invalid input, are retried
+ * with (at least) twice as many tokens until the input ends.
+ */
+public final class StreamingParser {
+
+    private final Iterator<Token> tokens;
+    private final TokenBuffer window = TokenBuffer.window();
+    private final Parser parser = new Parser(window);
+
+    /**
+     * Creates a parser pulling tokens from the given iterator, such as
+     * {@link Lexer#iterator()}, whose exceptions are propagated.
+     */
+    public StreamingParser(Iterator<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    public StreamingParser(Lexer lexer) {
+        this(lexer.iterator());
+    }
+
+    /**
+     * Returns true if there are tokens remaining, and thus another statement
+     * (or error).
+     */
+    public boolean hasNext() {
+        return window.size() != 0 || tokens.hasNext();
+    }
+
+    /**
+     * Parses the next top-level statement.
+     */
+    public Ast.Stmt parseNext() throws ParseException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var minimum = 1;
+        while (true) {
+            pull(minimum);
+            try {
+                var stmt = parser.parseStmtAt(0);
+                window.removeFirst(parser.index());
+                return stmt;
+            } catch (ParseException e) {
+                if (e.getToken().isPresent() || !tokens.hasNext()) {
+                    throw e;
+                }
+                minimum = 2 * window.size();
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator parsing statements on demand. Parse errors are thrown
+     * from {@link Iterator#next()} wrapped in an
+     * {@link UncheckedParseException}.
+     */
+    public Iterator<Ast.Stmt> iterator() {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return StreamingParser.this.hasNext();
+            }
+
+            @Override
+            public Ast.Stmt next() {
+                try {
+                    return parseNext();
+                } catch (ParseException e) {
+                    throw new UncheckedParseException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a sequential stream of statements parsed on demand, as with
+     * {@link #iterator()}.
+     */
+    public Stream<Ast.Stmt> stream() {
+        var spliterator = Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Pulls tokens into the window until it contains at least minimum tokens
+     * and ends at a statement boundary, or the input ends.
+     */
+    private void pull(int minimum) {
+        StatementScanner.Statement statement = null;
+        for (int i = 0; i < window.size() || tokens.hasNext(); i++) {
+            if (i == window.size()) {
+                window.append(tokens.next());
+            }
+            if (statement == null) {
+                statement = new StatementScanner.Statement(window, i);
+            }
+            if (statement.ends(window, i)) {
+                if (i + 1 >= minimum) {
+                    return;
+                }
+                statement = null;
+            }
+        }
+    }
+
+
+}
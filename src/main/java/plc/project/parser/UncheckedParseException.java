@@ -0,0 +1,25 @@
+package plc.project.parser;
+
+import java.io.Serial;
+import java.util.Objects;
+
+/**
+ * Wraps a {@link ParseException} thrown while lazily parsing statements, such
+ * as via {@link StreamingParser#iterator()} or {@link StreamingParser#stream()},
+ * where checked exceptions cannot be thrown directly.
+ */
+public final class UncheckedParseException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedParseException(ParseException cause) {
+        super(Objects.requireNonNull(cause));
+    }
+
+    @Override
+    public ParseException getCause() {
+        return (ParseException) super.getCause();
+    }
+
+}
@@ -1,11 +1,21 @@
 package plc.project.lexer;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.StringReader;
+import java.lang.foreign.MemorySegment;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 public final class LexerTests {
@@ -97,7 +107,8 @@ public final class LexerTests {
             Arguments.of("Newline Escape", "\'\\n\'", true),
             Arguments.of("Unterminated", "\'u", false),
             Arguments.of("Multiple", "\'abc\'", false),
-            Arguments.of("Empty Character", "''", false)
+            Arguments.of("Empty Character", "''", false),
+            Arguments.of("Non-BMP", "'\uD83D\uDE00'", false)
         );
     }
 
@@ -206,6 +217,341 @@ public final class LexerTests {
         );
     }
 
+    @ParameterizedTest
+    @MethodSource({"testInteraction", "testProgram"})
+    void testBuffer(String test, String input, List<Token> expected) {
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(expected, buffer.asList());
+        Assertions.assertEquals(expected, TokenBuffer.of(expected).asList());
+        var window = TokenBuffer.window();
+        expected.forEach(window::append);
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.subList(i, expected.size()), window.asList());
+            window.removeFirst(1);
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.get(i).type(), buffer.type(i));
+            Assertions.assertTrue(buffer.literalEquals(i, expected.get(i).literal()));
+            Assertions.assertEquals(expected.get(i).literal(), input.substring(buffer.start(i), buffer.end(i)));
+        }
+    }
+
+    @Test
+    void testSymbols() {
+        var input = "LET name = name.other(name, LET);";
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lex());
+        Assertions.assertSame("LET", tokens.get(0).literal());
+        Assertions.assertSame(tokens.get(1).literal(), tokens.get(3).literal());
+        Assertions.assertSame(tokens.get(1).literal(), tokens.get(7).literal());
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(SymbolTable.LET, buffer.symbol(0));
+        Assertions.assertEquals(buffer.symbol(1), buffer.symbol(3));
+        Assertions.assertNotEquals(buffer.symbol(1), buffer.symbol(5));
+        Assertions.assertEquals(-1, buffer.symbol(2));
+        Assertions.assertSame(buffer.literal(1), buffer.literal(7));
+    }
+
+    @Test
+    void testSymbolsMapped(@TempDir Path directory) throws Exception {
+        var operators = List.of("\u00b1", "\u00a7", "\u00d7", "\u00f7", "\u2192", "\u2264", "\u4e16");
+        var path = Files.writeString(directory.resolve("input.plc"), String.join(" x ", operators));
+        var buffer = Lexer.lexBuffer(path);
+        for (int i = 0; i < operators.size(); i++) {
+            Assertions.assertEquals(buffer.kind(2 * i), buffer.symbols().intern(operators.get(i)), operators.get(i));
+        }
+        //Rehashing uses the String hash, which must agree with the mapped hash.
+        for (int i = 0; i < 100; i++) {
+            buffer.symbols().intern("name" + i);
+        }
+        var lexer = new Lexer(buffer.source().restart(), buffer.symbols());
+        var relexed = Assertions.assertDoesNotThrow(() -> lexer.lexBuffer());
+        for (int i = 0; i < operators.size(); i++) {
+            Assertions.assertEquals(buffer.kind(2 * i), relexed.kind(2 * i), operators.get(i));
+        }
+    }
+
+    @Test
+    void testSymbolsStreamed() {
+        var lexer = new Lexer(new StringReader("LET a = b + c;"));
+        var tokens = Assertions.assertDoesNotThrow(() -> lexer.lex());
+        Assertions.assertSame("LET", tokens.get(0).literal());
+        Assertions.assertSame("+", tokens.get(4).literal());
+        Assertions.assertEquals("a", tokens.get(1).literal());
+        Assertions.assertEquals(SymbolTable.PREDEFINED, lexer.symbols().size());
+    }
+
+    @Test
+    void testKinds() {
+        var buffer = Assertions.assertDoesNotThrow(() -> new Lexer("IF x <= f(1) DO \"END\"; x ?").lexBuffer());
+        var expected = new int[] {
+            SymbolTable.IF, buffer.symbol(1), SymbolTable.LESS_EQUAL, buffer.symbol(3), SymbolTable.LEFT_PAREN,
+            -1, SymbolTable.RIGHT_PAREN, SymbolTable.DO, -1, SymbolTable.SEMICOLON, buffer.symbol(1), buffer.kind(11)
+        };
+        for (int i = 0; i < expected.length; i++) {
+            Assertions.assertEquals(expected[i], buffer.kind(i));
+        }
+        Assertions.assertTrue(buffer.kind(11) >= SymbolTable.PREDEFINED);
+        Assertions.assertSame("<=", buffer.literal(2));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testScanner(String test, String input) {
+        var chars = input.toCharArray();
+        var segment = MemorySegment.ofArray(input.getBytes(StandardCharsets.UTF_8));
+        for (var cls : List.of(CharClass.WHITESPACE, CharClass.COMMENT_BODY, CharClass.STRING_BODY)) {
+            for (int from = 0; from < chars.length; from++) {
+                Assertions.assertEquals(VectorScanner.scalar(chars, from, chars.length, cls), VectorScanner.scan(chars, from, chars.length, cls));
+            }
+            for (int from = 0; from < segment.byteSize(); from++) {
+                var to = (int) segment.byteSize();
+                Assertions.assertEquals(VectorScanner.scalar(segment, from, to, cls), VectorScanner.scan(segment, from, to, cls));
+            }
+        }
+    }
+
+    public static Stream<Arguments> testScanner() {
+        return Stream.of(
+            Arguments.of("Whitespace", " ".repeat(100) + "\t\b\n\r" + " ".repeat(37) + "x"),
+            Arguments.of("Comment", "//" + "comment body ".repeat(20) + "\n" + " ".repeat(70)),
+            Arguments.of("String", "\"" + "string body ".repeat(20) + "\\n\"" + "\u00E9\u4E16".repeat(40) + "\"")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecovering(String test, String input, List<Token> expected, List<Integer> indices) {
+        var result = new Lexer(input).lexRecovering();
+        Assertions.assertEquals(expected, result.tokens());
+        Assertions.assertEquals(indices, result.errors().stream().map(LexException::getIndex).toList());
+    }
+
+    public static Stream<Arguments> testRecovering() {
+        return Stream.of(
+            Arguments.of("Valid", "x = 1;", List.of(
+                new Token(Token.Type.IDENTIFIER, "x"),
+                new Token(Token.Type.OPERATOR, "="),
+                new Token(Token.Type.INTEGER, "1"),
+                new Token(Token.Type.OPERATOR, ";")
+            ), List.of()),
+            Arguments.of("Invalid Escape", "x \"\\q\" y", List.of(
+                new Token(Token.Type.IDENTIFIER, "x"),
+                new Token(Token.Type.IDENTIFIER, "y")
+            ), List.of(4)),
+            Arguments.of("Multiple", "'ab' x\n\"unterminated\ny '\\q' z", List.of(
+                new Token(Token.Type.IDENTIFIER, "x"),
+                new Token(Token.Type.IDENTIFIER, "y"),
+                new Token(Token.Type.IDENTIFIER, "z")
+            ), List.of(2, 20, 25))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLines(String test, String input, int offset, String expected) {
+        Assertions.assertEquals(expected, LineIndex.of(input).position(offset).toString());
+    }
+
+    public static Stream<Arguments> testLines() {
+        return Stream.of(
+            Arguments.of("Start", "abc", 0, "1:1"),
+            Arguments.of("End Of Input", "abc", 3, "1:4"),
+            Arguments.of("Newline", "ab\ncd", 3, "2:1"),
+            Arguments.of("Carriage Return Newline", "ab\r\ncd", 4, "2:1"),
+            Arguments.of("Carriage Return", "ab\rcd\n\nef", 7, "4:1"),
+            Arguments.of("Comment", "// comment\n  x", 13, "2:3")
+        );
+    }
+
+    @Test
+    void testLexExceptionLine() {
+        var lexer = new Lexer("x = 1;\ny = \"unterminated\n");
+        var exception = Assertions.assertThrows(LexException.class, lexer::lex);
+        Assertions.assertEquals(new LineIndex.Position(2, 18), lexer.lines().position(exception.getIndex()));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testNumberValue(String test, String input, Number expected) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(expected, tokens.number(0));
+    }
+
+    public static Stream<Arguments> testNumberValue() {
+        return Stream.of(
+            Arguments.of("Small", "1", BigInteger.ONE),
+            Arguments.of("Signed", "-42", new BigInteger("-42")),
+            Arguments.of("Leading Zeros", "+007", new BigInteger("7")),
+            Arguments.of("Large", "123456789012345678901234567890", new BigInteger("123456789012345678901234567890")),
+            Arguments.of("Decimal", "1.50", new BigDecimal("1.50")),
+            Arguments.of("Small Decimal", "-0.0001", new BigDecimal("-0.0001")),
+            Arguments.of("Exponent", "1e10", new BigDecimal("1e10")),
+            Arguments.of("Negative Exponent", "2.5e-3", new BigDecimal("2.5e-3")),
+            Arguments.of("Long Decimal", "3.14159265358979323846264338327950288", new BigDecimal("3.14159265358979323846264338327950288"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStringValue(String test, String input, String expected) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        Assertions.assertEquals(expected, tokens.string(0).toString());
+        var segment = MemorySegment.ofArray(input.getBytes(StandardCharsets.UTF_8));
+        var mapped = Assertions.assertDoesNotThrow(() -> new Lexer(segment).lexBuffer());
+        Assertions.assertEquals(expected, mapped.string(0).toString());
+        var copied = TokenBuffer.of(List.of(tokens.get(0)));
+        Assertions.assertEquals(expected, copied.string(0).toString());
+        //Removing earlier tokens from a window keeps the (decoded) payload.
+        var window = TokenBuffer.window();
+        window.append(tokens.get(0));
+        window.append(tokens.get(0));
+        window.removeFirst(1);
+        Assertions.assertEquals(expected, window.string(0).toString());
+    }
+
+    public static Stream<Arguments> testStringValue() {
+        return Stream.of(
+            Arguments.of("Empty", "\"\"", ""),
+            Arguments.of("No Escapes", "\"string\"", "string"),
+            Arguments.of("Escapes", "\"a\\tb\\\\c\\\"\"", "a\tb\\c\""),
+            Arguments.of("Leading Escape", "\"\\nline\"", "\nline"),
+            Arguments.of("Escaped b", "\"a\\bc\"", "abc"),
+            Arguments.of("Unicode", "\"\u00E9\\n\u4E16\"", "\u00E9\n\u4E16"),
+            Arguments.of("Character", "'c'", "c"),
+            Arguments.of("Character Escape", "'\\''", "'")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource({"testInteraction", "testProgram"})
+    void testStream(String test, String input, List<Token> expected) {
+        //A capacity of 1 forces the buffer to be refilled/grown for every token.
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(new StringReader(input), 1).lex());
+        Assertions.assertEquals(expected, tokens);
+        Assertions.assertEquals(expected, new Lexer(new StringReader(input)).stream().toList());
+    }
+
+    @ParameterizedTest
+    @MethodSource("testException")
+    void testStreamException(String test, String input, int index) {
+        var stream = new Lexer(new StringReader(input), 1).stream();
+        var e = Assertions.assertThrows(UncheckedLexException.class, stream::toList);
+        Assertions.assertEquals(index, e.getCause().getIndex());
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testMapped(String test, String input, @TempDir Path directory) throws Exception {
+        var path = Files.writeString(directory.resolve("input.plc"), input);
+        try {
+            var expected = new Lexer(input).lex();
+            Assertions.assertEquals(expected, Assertions.assertDoesNotThrow(() -> Lexer.lex(path)));
+            Assertions.assertEquals(expected, Assertions.assertDoesNotThrow(() -> Lexer.lexBuffer(path).asList()));
+            Assertions.assertEquals(expected, Assertions.assertDoesNotThrow(() -> new Lexer(new StringReader(input)).lex()));
+            Assertions.assertEquals(expected, Assertions.assertDoesNotThrow(() -> new Lexer(new StringReader(input), 1).lex()));
+        } catch (LexException e) {
+            //Indices of mapped input are byte offsets, so only the failure is compared.
+            Assertions.assertThrows(LexException.class, () -> Lexer.lex(path));
+            Assertions.assertThrows(LexException.class, () -> Lexer.lexBuffer(path));
+            Assertions.assertThrows(LexException.class, () -> new Lexer(new StringReader(input)).lex());
+            Assertions.assertThrows(LexException.class, () -> new Lexer(new StringReader(input), 1).lex());
+        }
+    }
+
+    public static Stream<Arguments> testMapped() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Program", "LET x = 5; // comment\nprint(\"Hello, World!\");"),
+            Arguments.of("Non-ASCII String", "\"h\u00e9llo \u4e16\u754c\""),
+            Arguments.of("Non-ASCII Character", "'\u00e9'"),
+            Arguments.of("Non-ASCII Operator", "x \u00b1 y"),
+            Arguments.of("Non-BMP String", "\"\uD83D\uDE00\""),
+            Arguments.of("Non-BMP Character", "'\uD83D\uDE00'"),
+            Arguments.of("Non-BMP Character Program", "LET c = '\uD83D\uDE00';"),
+            Arguments.of("Non-BMP Operator", "x \uD83D\uDE00 y")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        //A small chunk size splits the input at (almost) every line.
+        var lexer = new ParallelLexer(ForkJoinPool.commonPool(), 1);
+        try {
+            var expected = new Lexer(input).lexBuffer();
+            var tokens = Assertions.assertDoesNotThrow(() -> lexer.lex(input));
+            Assertions.assertEquals(expected.asList(), tokens.asList());
+            for (int i = 0; i < expected.size(); i++) {
+                Assertions.assertEquals(expected.symbol(i), tokens.symbol(i));
+                Assertions.assertEquals(expected.kind(i), tokens.kind(i));
+            }
+        } catch (LexException expected) {
+            var e = Assertions.assertThrows(LexException.class, () -> lexer.lex(input));
+            Assertions.assertEquals(expected.getIndex(), e.getIndex());
+            Assertions.assertEquals(expected.getMessage(), e.getMessage());
+        }
+    }
+
+    public static Stream<Arguments> testParallel() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Single Line", "LET x = 5;"),
+            Arguments.of("Multiple Lines", "LET x = 5;\nLET y = x;\n\nprint(\"x\", y);\n"),
+            Arguments.of("Comments", "// first\nfirst // second\n// third\nthird"),
+            Arguments.of("Unterminated String", "LET x = \"unterminated\nLET y = 1;\n"),
+            Arguments.of("Later Error", "LET x = 1;\nLET y = 2;\nLET z = \"\\q\";\n")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testIncremental(String test, String input, int offset, int removed, String inserted, int relexed) {
+        var edited = input.substring(0, offset) + inserted + input.substring(offset + removed);
+        var expected = Assertions.assertDoesNotThrow(() -> new Lexer(edited).lexBuffer());
+        var previous = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var result = Assertions.assertDoesNotThrow(() -> IncrementalLexer.relex(previous, offset, removed, inserted));
+        Assertions.assertEquals(expected.asList(), result.tokens().asList());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.start(i), result.tokens().start(i));
+        }
+        Assertions.assertEquals(relexed, result.newEnd() - result.start());
+    }
+
+    public static Stream<Arguments> testIncremental() {
+        return Stream.of(
+            Arguments.of("Extend Identifier", "LET name = 1;", 8, 0, "s", 1),
+            Arguments.of("Replace Operator", "LET x = a < b;", 10, 1, "<=", 1),
+            Arguments.of("Insert Token", "f(a);\ng(b);", 4, 0, " + c", 3),
+            Arguments.of("Join Tokens", "x = 1 .5;", 5, 1, "", 1),
+            Arguments.of("Open Comment", "a;\nb;\nc;", 3, 0, "//", 0),
+            Arguments.of("Remove All", "a b c", 0, 5, "", 0)
+        );
+    }
+
+    @Test
+    void testIncrementalChain() {
+        //Enough edits to compact both the spliced input and the token buffer.
+        var input = "LET x = 1;\n".repeat(10);
+        var first = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var tokens = first;
+        var text = input;
+        for (int i = 0; i < 300; i++) {
+            var offset = (i * 37) % (text.length() + 1);
+            var removed = Math.min(i % 3, text.length() - offset);
+            var inserted = i % 2 == 0 ? " y" + i + " " : "";
+            var previous = tokens;
+            tokens = Assertions.assertDoesNotThrow(() -> IncrementalLexer.relex(previous, offset, removed, inserted)).tokens();
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            var edited = text;
+            var expected = Assertions.assertDoesNotThrow(() -> new Lexer(edited).lexBuffer());
+            Assertions.assertEquals(expected.asList(), tokens.asList());
+            for (int j = 0; j < expected.size(); j++) {
+                Assertions.assertEquals(expected.start(j), tokens.start(j));
+            }
+        }
+        Assertions.assertEquals(Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer()).asList(), first.asList());
+    }
+
     private static void test(String input, List<Token> expected, boolean equals) {
         if (equals) {
             var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lex());
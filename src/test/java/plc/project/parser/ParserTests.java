@@ -1,16 +1,32 @@
 package plc.project.parser;
 
+import com.google.common.hash.Hashing;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import plc.project.lexer.IncrementalLexer;
+import plc.project.lexer.LexException;
 import plc.project.lexer.Lexer;
 import plc.project.lexer.Token;
 
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 final class ParserTests {
@@ -330,9 +346,17 @@ final class ParserTests {
                 List.of(new Token(Token.Type.STRING, "\"string\"")),
                 new Ast.Expr.Literal("string")
             ),
+            Arguments.of("Character Escape",
+                List.of(new Token(Token.Type.CHARACTER, "\'\\n\'")),
+                new Ast.Expr.Literal('\n')
+            ),
             Arguments.of("String Newline Escape",
                 List.of(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"")),
                 new Ast.Expr.Literal("Hello,\nWorld!")
+            ),
+            Arguments.of("String Lexed Escapes",
+                "\"\\\"quoted\\\"\\tand\\\\ \u00E9\"",
+                new Ast.Expr.Literal("\"quoted\"\tand\\ \u00E9")
             )
         );
     }
@@ -448,6 +472,38 @@ final class ParserTests {
                     ),
                     new Ast.Expr.Variable("third")
                 )
+            ),
+            Arguments.of("Logical",
+                "first OR second < third AND fourth",
+                new Ast.Expr.Binary(
+                    "AND",
+                    new Ast.Expr.Binary(
+                        "OR",
+                        new Ast.Expr.Variable("first"),
+                        new Ast.Expr.Binary(
+                            "<",
+                            new Ast.Expr.Variable("second"),
+                            new Ast.Expr.Variable("third")
+                        )
+                    ),
+                    new Ast.Expr.Variable("fourth")
+                )
+            ),
+            Arguments.of("Comparison",
+                "first <= second == third",
+                new Ast.Expr.Binary(
+                    "==",
+                    new Ast.Expr.Binary(
+                        "<=",
+                        new Ast.Expr.Variable("first"),
+                        new Ast.Expr.Variable("second")
+                    ),
+                    new Ast.Expr.Variable("third")
+                )
+            ),
+            Arguments.of("Missing Operand",
+                "first -",
+                new ParseException("", Optional.empty())
             )
         );
     }
@@ -646,27 +702,564 @@ final class ParserTests {
         );
     }
 
+    private static final Ast.Stmt ERROR = new Ast.Stmt.Expression(new Ast.Expr.Literal(null));
+
+    @ParameterizedTest
+    @MethodSource
+    void testRecovering(String test, String input, Ast.Source expected, List<String> errors) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var result = new Parser(tokens).parseRecovering();
+        Assertions.assertEquals(errors, result.errors().stream().map(e -> e.getToken().map(Token::literal).orElse("")).toList());
+        Assertions.assertEquals(expected, result.source());
+        //Placeholders are identified by identity, not by equality with NIL;.
+        var statements = Collections.newSetFromMap(new IdentityHashMap<Ast.Stmt, Boolean>());
+        collect(result.source().statements(), statements);
+        Assertions.assertEquals(errors.size(), statements.stream().filter(stmt -> result.error(stmt).isPresent()).count());
+        //Partial sources only contain ordinary nodes, so they can be encoded.
+        Assertions.assertEquals(expected, AstCodec.decode(ByteBuffer.wrap(AstCodec.encode(result.source()))));
+    }
+
+    private static Stream<Arguments> testRecovering() {
+        return Stream.of(
+            Arguments.of("Valid", "x;", new Ast.Source(List.of(
+                new Ast.Stmt.Expression(new Ast.Expr.Variable("x"))
+            )), List.of()),
+            Arguments.of("Semicolon", "LET x = ; y; z = 1;", new Ast.Source(List.of(
+                ERROR,
+                new Ast.Stmt.Expression(new Ast.Expr.Variable("y")),
+                new Ast.Stmt.Assignment(new Ast.Expr.Variable("z"), new Ast.Expr.Literal(new BigInteger("1")))
+            )), List.of(";")),
+            Arguments.of("Keyword", "x + LET y; RETURN", new Ast.Source(List.of(
+                ERROR,
+                new Ast.Stmt.Let("y", Optional.empty()),
+                ERROR
+            )), List.of("y", "")),
+            Arguments.of("Nil Statement", "NIL; x = ;", new Ast.Source(List.of(
+                new Ast.Stmt.Expression(new Ast.Expr.Literal(null)),
+                ERROR
+            )), List.of(";")),
+            Arguments.of("Body", "DEF f() DO x = ; RETURN 1; END LET y;", new Ast.Source(List.of(
+                new Ast.Stmt.Def("f", List.of(), List.of(
+                    ERROR,
+                    new Ast.Stmt.Return(Optional.of(new Ast.Expr.Literal(new BigInteger("1"))))
+                )),
+                new Ast.Stmt.Let("y", Optional.empty())
+            )), List.of(";")),
+            Arguments.of("Nested Block", "IF x + DO y; IF z DO END END z;", new Ast.Source(List.of(
+                ERROR,
+                new Ast.Stmt.Expression(new Ast.Expr.Variable("z"))
+            )), List.of("y"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testPosition(String test, String input, String expected) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var parser = new Parser(tokens);
+        var received = Assertions.assertThrows(ParseException.class, () -> parser.parse("expr"));
+        Assertions.assertEquals(Optional.of(expected), parser.position(received).map(Object::toString));
+    }
+
+    private static Stream<Arguments> testPosition() {
+        return Stream.of(
+            Arguments.of("First Line", "(1 2)", "1:4"),
+            Arguments.of("Later Line", "f(1,\n  2\r\n  3)", "3:3"),
+            Arguments.of("End Of Input", "x.\n", "1:3")
+        );
+    }
+
+    @Test
+    void testPositionLastParse() {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer("(1 2)").lexBuffer());
+        var parser = new Parser(tokens);
+        var first = Assertions.assertThrows(ParseException.class, () -> parser.parse("expr"));
+        var second = Assertions.assertThrows(ParseException.class, () -> parser.parse("expr"));
+        Assertions.assertEquals(Optional.empty(), parser.position(first));
+        //The second parse continues from the token where the first failed.
+        Assertions.assertEquals(Optional.of("1:5"), parser.position(second).map(Object::toString));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testIncremental(String test, String input, int offset, int removed, String inserted, int reused) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var previous = Assertions.assertDoesNotThrow(() -> (Ast.Source) new Parser(tokens).parse("source"));
+        var result = Assertions.assertDoesNotThrow(() -> IncrementalLexer.relex(tokens, offset, removed, inserted));
+        var received = Assertions.assertDoesNotThrow(() -> IncrementalParser.reparse(previous, tokens, result));
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(result.tokens()).parse("source"));
+        Assertions.assertEquals(expected, received);
+        var statements = Collections.newSetFromMap(new IdentityHashMap<Ast.Stmt, Boolean>());
+        collect(previous.statements(), statements);
+        Assertions.assertEquals(reused, countReused(received.statements(), statements));
+    }
+
+    private static Stream<Arguments> testIncremental() {
+        return Stream.of(
+            Arguments.of("Single Statement", "LET x = 1;\nx = 2;\nLET y = 3;", 15, 1, "5", 2),
+            Arguments.of("Inserted Statement", "x;\ny;", 3, 0, "z;\n", 2),
+            Arguments.of("Appended Statement", "x;", 2, 0, " y;", 1),
+            Arguments.of("Def Body", "DEF f() DO\n  LET a = 1;\n  a = 2;\n  RETURN a;\nEND\nf();", 30, 1, "5", 3),
+            Arguments.of("Else Body", "IF c DO\n  x;\nELSE\n  y;\nEND\nz;", 20, 1, "w", 2),
+            Arguments.of("Object Header", "IF OBJECT DO LET a; END.a DO\n  x;\nEND\ny;", 31, 1, "w", 1),
+            Arguments.of("Inserted Else", "IF c DO\n  x;\n  y;\nEND\nz;", 15, 0, "ELSE ", 1)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var parser = new ParallelParser(ForkJoinPool.commonPool(), 1);
+        try {
+            var expected = new Parser(tokens).parse("source");
+            Assertions.assertEquals(expected, Assertions.assertDoesNotThrow(() -> parser.parse(tokens)));
+        } catch (ParseException expected) {
+            var received = Assertions.assertThrows(ParseException.class, () -> parser.parse(tokens));
+            Assertions.assertEquals(expected.getMessage(), received.getMessage());
+            Assertions.assertEquals(expected.getToken(), received.getToken());
+        }
+    }
+
+    private static Stream<Arguments> testParallel() {
+        return Stream.of(
+            Arguments.of("Statements", "LET x = 1; DEF f(a) DO RETURN a; END x = f(x); f(x);"),
+            Arguments.of("Nested", "IF x DO FOR i IN y DO z; END ELSE DEF g() DO END END LET y;"),
+            Arguments.of("Object", "LET o = OBJECT DO LET a; DEF m() DO END END; IF OBJECT DO END.a DO x; END y;"),
+            Arguments.of("Error", "LET x = 1; LET y = ; z;"),
+            Arguments.of("Unterminated", "x; DEF f() DO y; z;"),
+            Arguments.of("Misaligned", "x; END; y = DO; z;")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testIterative(String test, String prefix, String middle, String suffix, String end, Class<? extends Ast> nested) {
+        var depth = 100_000;
+        var input = prefix.repeat(depth) + middle + suffix.repeat(depth) + end;
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var received = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parseIterative("source"));
+        //Equality and toString of the AST are recursive, so nesting is counted iteratively.
+        var count = 0;
+        for (Object ast = received; ast != null; ) {
+            if (nested.isInstance(ast)) {
+                count++;
+            }
+            ast = switch (ast) {
+                case Ast.Source source -> source.statements().getFirst();
+                case Ast.Stmt.Expression stmt -> stmt.expression();
+                case Ast.Stmt.If stmt -> stmt.thenBody().isEmpty() ? null : stmt.thenBody().getFirst();
+                case Ast.Expr.Group expr -> expr.expression();
+                case Ast.Expr.Binary expr -> expr.right();
+                case Ast.Expr.Method expr -> expr.receiver();
+                default -> null;
+            };
+        }
+        Assertions.assertEquals(depth, count);
+    }
+
+    private static Stream<Arguments> testIterative() {
+        return Stream.of(
+            Arguments.of("Group", "(", "x", ")", ";", Ast.Expr.Group.class),
+            Arguments.of("Binary", "x + (", "y", ")", ";", Ast.Expr.Binary.class),
+            Arguments.of("Method", "", "x", ".m()", ";", Ast.Expr.Method.class),
+            Arguments.of("If", "IF x DO ", "y;", " END", "", Ast.Stmt.If.class)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStreaming(String test, String input) {
+        var parser = new StreamingParser(new Lexer(new StringReader(input)));
+        try {
+            var expected = (Ast.Source) new Parser(Assertions.assertDoesNotThrow(() -> new Lexer(input).lex())).parse("source");
+            Assertions.assertEquals(expected.statements(), parser.stream().toList());
+        } catch (ParseException expected) {
+            var received = Assertions.assertThrows(UncheckedParseException.class, () -> parser.stream().toList());
+            Assertions.assertEquals(expected.getMessage(), received.getCause().getMessage());
+            Assertions.assertEquals(expected.getToken(), received.getCause().getToken());
+        }
+    }
+
+    private static Stream<Arguments> testStreaming() {
+        return Stream.of(
+            Arguments.of("Statements", "LET x = 1; DEF f(a) DO RETURN a; END x = f(x);"),
+            Arguments.of("Object", "LET o = OBJECT DO LET a; DEF m() DO END END; IF OBJECT DO END.a DO x; END"),
+            Arguments.of("Error", "LET x = 1; LET y = ; z;"),
+            Arguments.of("Missing Semicolon", "x y; z;"),
+            Arguments.of("Unterminated", "x; DEF f() DO y; z;"),
+            Arguments.of("Stray End", "x; END; y;")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testStreamingLazy(String test, String input, List<Integer> pulled) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lex());
+        var count = new int[1];
+        var parser = new StreamingParser(tokens.stream().peek(token -> count[0]++).iterator());
+        var received = new ArrayList<Integer>();
+        while (parser.hasNext()) {
+            Assertions.assertDoesNotThrow(parser::parseNext);
+            received.add(count[0]);
+        }
+        Assertions.assertEquals(pulled, received);
+    }
+
+    private static Stream<Arguments> testStreamingLazy() {
+        return Stream.of(
+            Arguments.of("Statements", "x; y = 1; z;", List.of(2, 6, 8)),
+            Arguments.of("Def", "DEF f() DO x; y; END z;", List.of(10, 12))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testInterning(String test, String input, List<List<Integer>> shared) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var expected = Assertions.assertDoesNotThrow(() -> (Ast.Source) new Parser(tokens).parse("source"));
+        List<ParserMethod<Ast>> methods = List.of(parser -> parser.parse("source"), parser -> parser.parseIterative("source"));
+        for (var method : methods) {
+            var received = (Ast.Source) Assertions.assertDoesNotThrow(() -> method.invoke(new Parser(tokens, new AstInterner())));
+            Assertions.assertEquals(expected, received);
+            for (var group : shared) {
+                for (var index : group) {
+                    Assertions.assertSame(received.statements().get(group.getFirst()), received.statements().get(index));
+                }
+            }
+        }
+    }
+
+    private static Stream<Arguments> testInterning() {
+        return Stream.of(
+            Arguments.of("Repeated", "x + 1; y; x + 1;", List.of(List.of(0, 2))),
+            Arguments.of("Literal Types", "1; 1.0; 1; 1.0;", List.of(List.of(0, 2), List.of(1, 3))),
+            Arguments.of("Nested", "f(g(x), 'c'); LET y = 1; f(g(x), 'c'); LET y = 1;", List.of(List.of(0, 2), List.of(1, 3))),
+            Arguments.of("Compound", "IF x DO RETURN 1; END IF x DO RETURN 1; END", List.of(List.of(0, 1)))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testInterningShared(String test, String input) {
+        var interner = new AstInterner();
+        var first = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer(), interner).parse("expr"));
+        var second = Assertions.assertDoesNotThrow(() -> new Parser(new Lexer(input).lexBuffer(), interner).parse("expr"));
+        Assertions.assertSame(first, second);
+    }
+
+    private static Stream<Arguments> testInterningShared() {
+        return Stream.of(
+            Arguments.of("Binary", "a * (b + c) < d"),
+            Arguments.of("Object", "OBJECT o DO LET x = 1; DEF m(p) DO RETURN p.q(x); END END")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testArena(String test, String input, List<AstArena.Kind> kinds, List<String> names) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parse("source"));
+        var arena = new AstArena();
+        var source = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parseInto(arena));
+        Assertions.assertEquals(expected, arena.get(source));
+        Assertions.assertEquals(kinds, IntStream.range(0, arena.size()).mapToObj(arena::kind).toList());
+        Assertions.assertEquals(names, IntStream.range(0, arena.size()).mapToObj(arena::name).toList());
+        Assertions.assertEquals(expected, arena.get(arena.add(expected)));
+    }
+
+    private static Stream<Arguments> testArena() {
+        return Stream.of(
+            Arguments.of("Let", "LET x: Integer = 1;",
+                List.of(AstArena.Kind.LITERAL, AstArena.Kind.LET, AstArena.Kind.SOURCE),
+                Arrays.asList(null, "x", null)
+            ),
+            Arguments.of("Def", "DEF f(a, b: String): Integer DO RETURN a + b; END",
+                List.of(AstArena.Kind.VARIABLE, AstArena.Kind.VARIABLE, AstArena.Kind.BINARY, AstArena.Kind.RETURN, AstArena.Kind.DEF, AstArena.Kind.SOURCE),
+                Arrays.asList("a", "b", "+", null, "f", null)
+            ),
+            Arguments.of("If", "IF x DO y; ELSE z = 1; END",
+                List.of(AstArena.Kind.VARIABLE, AstArena.Kind.VARIABLE, AstArena.Kind.EXPRESSION, AstArena.Kind.VARIABLE, AstArena.Kind.LITERAL, AstArena.Kind.ASSIGNMENT, AstArena.Kind.IF, AstArena.Kind.SOURCE),
+                Arrays.asList("x", "y", null, "z", null, null, null, null)
+            ),
+            Arguments.of("Expressions", "FOR i IN o.p DO (o.m(i, f())); END",
+                List.of(AstArena.Kind.VARIABLE, AstArena.Kind.PROPERTY, AstArena.Kind.VARIABLE, AstArena.Kind.VARIABLE, AstArena.Kind.FUNCTION, AstArena.Kind.METHOD, AstArena.Kind.GROUP, AstArena.Kind.EXPRESSION, AstArena.Kind.FOR, AstArena.Kind.SOURCE),
+                Arrays.asList("o", "p", "o", "i", "f", "m", null, null, "i", null)
+            ),
+            Arguments.of("Object", "LET o = OBJECT DO LET a; DEF m() DO END END;",
+                List.of(AstArena.Kind.LET, AstArena.Kind.DEF, AstArena.Kind.OBJECT, AstArena.Kind.LET, AstArena.Kind.SOURCE),
+                Arrays.asList("a", "m", null, "o", null)
+            )
+        );
+    }
+
+    @Test
+    void testArenaDeep() {
+        var depth = 100_000;
+        var input = "IF x DO ".repeat(depth) + "(".repeat(depth) + "y" + ")".repeat(depth) + ";" + " END".repeat(depth);
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parseIterative("source"));
+        var arena = new AstArena();
+        var received = arena.get(arena.add(expected));
+        //Equality of the AST is recursive, so the trees are compared by their encoding.
+        Assertions.assertArrayEquals(AstCodec.encode(expected), AstCodec.encode(received));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testSpans(String test, String input, Function<Ast.Source, Ast> node, String expected) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        List<ParserMethod<Ast>> methods = List.of(parser -> parser.parse("source"), parser -> parser.parseIterative("source"));
+        for (var method : methods) {
+            var spans = new AstSpans(tokens);
+            var source = (Ast.Source) Assertions.assertDoesNotThrow(() -> method.invoke(new Parser(tokens, null, spans)));
+            var span = spans.get(node.apply(source)).orElseThrow();
+            Assertions.assertEquals(expected, input.substring(span.startOffset(), span.endOffset()));
+        }
+    }
+
+    private static Stream<Arguments> testSpans() {
+        return Stream.of(
+            Arguments.of("Statement", "x;\nLET y = 1;",
+                (Function<Ast.Source, Ast>) source -> source.statements().get(1),
+                "LET y = 1;"),
+            Arguments.of("Binary", "x = a * (b + c);",
+                (Function<Ast.Source, Ast>) source -> ((Ast.Stmt.Assignment) source.statements().getFirst()).value(),
+                "a * (b + c)"),
+            Arguments.of("Nested Binary", "x = a * (b + c);",
+                (Function<Ast.Source, Ast>) source -> ((Ast.Expr.Group) ((Ast.Expr.Binary) ((Ast.Stmt.Assignment) source.statements().getFirst()).value()).right()).expression(),
+                "b + c"),
+            Arguments.of("Method", "RETURN o.m(1, 2);",
+                (Function<Ast.Source, Ast>) source -> ((Ast.Stmt.Return) source.statements().getFirst()).value().orElseThrow(),
+                "o.m(1, 2)"),
+            Arguments.of("Def Body", "DEF f() DO\n  RETURN x IF y;\nEND",
+                (Function<Ast.Source, Ast>) source -> ((Ast.Stmt.Def) source.statements().getFirst()).body().getFirst(),
+                "RETURN x IF y;")
+        );
+    }
+
+    @Test
+    void testSpansPosition() {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer("x;\n  LET y;").lexBuffer());
+        var spans = new AstSpans(tokens);
+        var source = (Ast.Source) Assertions.assertDoesNotThrow(() -> new Parser(tokens, null, spans).parse("source"));
+        Assertions.assertEquals(3, spans.size());
+        Assertions.assertEquals(Optional.of("2:3"), spans.position(source.statements().get(1)).map(Object::toString));
+        Assertions.assertEquals(Optional.empty(), spans.position(new Ast.Expr.Variable("x")));
+    }
+
+    @Test
+    void testParseCache() {
+        var cache = new ParseCache(20);
+        var first = Assertions.assertDoesNotThrow(() -> cache.parse("LET x = 1;", "source"));
+        Assertions.assertEquals(new Ast.Source(List.of(new Ast.Stmt.Let("x", Optional.of(new Ast.Expr.Literal(new BigInteger("1")))))), first);
+        Assertions.assertSame(first, Assertions.assertDoesNotThrow(() -> cache.parse("LET x = 1;", "source")));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> ((Ast.Source) first).statements().clear());
+        Assertions.assertNotSame(first, Assertions.assertDoesNotThrow(() -> cache.parse("LET x = 1;", "stmt")));
+        Assertions.assertEquals(1, cache.stats().hitCount());
+        Assertions.assertEquals(2, cache.stats().missCount());
+        //Exceeding the maximum weight evicts the least recently used entry.
+        Assertions.assertDoesNotThrow(() -> cache.parse("y;", "source"));
+        Assertions.assertEquals(1, cache.stats().evictionCount());
+        Assertions.assertNotSame(first, Assertions.assertDoesNotThrow(() -> cache.parse("LET x = 1;", "source")));
+        //Errors are thrown on every call and not cached.
+        for (int i = 0; i < 2; i++) {
+            var received = Assertions.assertThrows(ParseException.class, () -> cache.parse("x", "source"));
+            Assertions.assertEquals(Optional.empty(), received.getToken());
+        }
+        Assertions.assertThrows(LexException.class, () -> cache.parse("\"x", "source"));
+    }
+
+    @Test
+    void testParseCacheCollision() {
+        //These inputs have the same CRC-32, so share a key.
+        var cache = new ParseCache(100, Hashing.crc32());
+        var first = Assertions.assertDoesNotThrow(() -> cache.parse("ipamuwrz;", "source"));
+        var second = Assertions.assertDoesNotThrow(() -> cache.parse("rcdlnzyc;", "source"));
+        Assertions.assertEquals(new Ast.Source(List.of(new Ast.Stmt.Expression(new Ast.Expr.Variable("rcdlnzyc")))), second);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertSame(first, Assertions.assertDoesNotThrow(() -> cache.parse("ipamuwrz;", "source")));
+    }
+
+    @Test
+    void testParseCacheDeep() {
+        var depth = 100_000;
+        var input = "IF x DO ".repeat(depth) + "y;" + " END".repeat(depth);
+        //The maximum weight is split between the cache's segments.
+        var cache = new ParseCache(10L * input.length());
+        var first = Assertions.assertDoesNotThrow(() -> cache.parse(input, "source"));
+        //Not assertSame, as failure messages include the (recursive) toString.
+        Assertions.assertTrue(first == Assertions.assertDoesNotThrow(() -> cache.parse(input, "source")));
+        //Lists are unmodifiable at every depth, which is checked iteratively.
+        var statements = ((Ast.Source) first).statements();
+        for (int i = 0; i < depth; i++) {
+            Assertions.assertThrows(UnsupportedOperationException.class, statements::clear);
+            statements = ((Ast.Stmt.If) statements.getFirst()).thenBody();
+        }
+        Assertions.assertEquals(List.of(new Ast.Stmt.Expression(new Ast.Expr.Variable("y"))), statements);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testCodec(String test, String input, @TempDir Path directory) throws Exception {
+        var expected = new Parser(new Lexer(input).lex()).parse("source");
+        var bytes = AstCodec.encode(expected);
+        Assertions.assertEquals(expected, AstCodec.decode(ByteBuffer.wrap(bytes)));
+        var path = directory.resolve("input.ast");
+        AstCodec.write(expected, path);
+        Assertions.assertEquals(expected, AstCodec.read(path));
+    }
+
+    private static Stream<Arguments> testCodec() {
+        return Stream.of(
+            Arguments.of("Empty", ""),
+            Arguments.of("Statements", "LET x: Integer = 1; DEF f(a, b: String): Integer DO RETURN a + b; END IF x DO y; ELSE z = 1; END FOR i IN o.p DO RETURN; END"),
+            Arguments.of("Expressions", "(o.m(x, f()) AND g(-1) OR h.p != NIL);"),
+            Arguments.of("Object", "LET o = OBJECT p DO LET a = 'c'; DEF m() DO END END;"),
+            Arguments.of("Literals", "f(NIL, TRUE, FALSE, 0, -9223372036854775808, 123456789012345678901234567890, 1.5, -1e-10, 1234567890123456789012345.5, '\\n', \"\", \"h\u00e9llo\");")
+        );
+    }
+
+    @Test
+    void testCodecInvalid() {
+        var bytes = AstCodec.encode(new Ast.Expr.Literal(new BigDecimal("1.5")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(new byte[] {1, 2, 3, 4})));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(bytes, 0, bytes.length - 1)));
+        //Counts (here Integer.MAX_VALUE) longer than the remaining input are rejected before allocating.
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(new byte[] {0x41, 0x53, 0x54, 0, 2, -1, -1, -1, -1, 7})));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(new byte[] {0x41, 0x53, 0x54, 0, 2, 0, 0, -1, -1, -1, -1, 7})));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.decode(ByteBuffer.wrap(new byte[] {0x41, 0x53, 0x54, 0, 2, 0, 16})));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> AstCodec.encode(new Ast.Expr.Literal(1.5)));
+    }
+
+    @Test
+    void testCodecDeep() {
+        var depth = 100_000;
+        var input = "IF x DO ".repeat(depth) + "f(".repeat(depth) + "x" + ")".repeat(depth) + ";" + " END".repeat(depth);
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var ast = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parseIterative("source"));
+        //Equality of the AST is recursive, so the round trip is compared by its encoding.
+        var bytes = AstCodec.encode(ast);
+        Assertions.assertArrayEquals(bytes, AstCodec.encode(AstCodec.decode(ByteBuffer.wrap(bytes))));
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testLazy(String test, String input) {
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parse("source"));
+        var received = Assertions.assertDoesNotThrow(() -> new Parser(tokens).parseLazy());
+        Assertions.assertEquals(expected, received);
+    }
+
+    private static Stream<Arguments> testLazy() {
+        return Stream.of(
+            Arguments.of("Empty Body", "DEF f() DO END"),
+            Arguments.of("Body", "DEF f(a, b: String): Integer DO LET x = a; RETURN x + b; END f(1, 2);"),
+            Arguments.of("Nested Blocks", "DEF f() DO IF x DO y; ELSE FOR i IN z DO RETURN i; END END END"),
+            Arguments.of("Nested Def", "DEF f() DO DEF g() DO RETURN 1; END RETURN g(); END"),
+            Arguments.of("Object", "LET o = OBJECT DO LET a; DEF m() DO RETURN OBJECT DO END; END END;")
+        );
+    }
+
+    @Test
+    void testLazyErrors() {
+        //Errors in the shape of a body are thrown immediately.
+        var shape = Assertions.assertDoesNotThrow(() -> new Lexer("DEF f() DO x END").lexBuffer());
+        Assertions.assertThrows(ParseException.class, () -> new Parser(shape).parseLazy());
+        //Errors within a statement are only thrown once the body is accessed.
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer("DEF f() DO\n  LET = 1;\nEND").lexBuffer());
+        var parser = new Parser(tokens);
+        var source = Assertions.assertDoesNotThrow(parser::parseLazy);
+        var def = (Ast.Stmt.Def) source.statements().getFirst();
+        Assertions.assertEquals("f", def.name());
+        var received = Assertions.assertThrows(UncheckedParseException.class, def.body()::size);
+        Assertions.assertEquals(Optional.of("2:7"), parser.position(received.getCause()).map(Object::toString));
+        //Bodies are parsed once, so later accesses throw the same error.
+        Assertions.assertSame(received, Assertions.assertThrows(UncheckedParseException.class, def.body()::size));
+        //Errors in nested bodies are located by the parser of the source.
+        var nestedTokens = Assertions.assertDoesNotThrow(() -> new Lexer("DEF f() DO\n  DEF g() DO\n    x = ;\n  END\nEND").lexBuffer());
+        var nestedParser = new Parser(nestedTokens);
+        var nested = (Ast.Stmt.Def) Assertions.assertDoesNotThrow(nestedParser::parseLazy).statements().getFirst();
+        var inner = (Ast.Stmt.Def) nested.body().getFirst();
+        var nestedReceived = Assertions.assertThrows(UncheckedParseException.class, inner.body()::size);
+        Assertions.assertEquals(Optional.of("3:9"), nestedParser.position(nestedReceived.getCause()).map(Object::toString));
+    }
+
+    @Test
+    void testLazyConcurrent() {
+        var input = "DEF f() DO LET x = 1; IF x DO RETURN x + 1; END END\n".repeat(200);
+        var tokens = Assertions.assertDoesNotThrow(() -> new Lexer(input).lexBuffer());
+        var expectedSpans = new AstSpans(tokens);
+        var expected = Assertions.assertDoesNotThrow(() -> new Parser(tokens, null, expectedSpans).parse("source"));
+        var spans = new AstSpans(tokens);
+        var source = Assertions.assertDoesNotThrow(() -> new Parser(tokens, null, spans).parseLazy());
+        source.statements().parallelStream().forEach(stmt -> ((Ast.Stmt.Def) stmt).body().size());
+        Assertions.assertEquals(expected, source);
+        Assertions.assertEquals(expectedSpans.size(), spans.size());
+    }
+
+    private static void collect(List<Ast.Stmt> statements, Set<Ast.Stmt> collected) {
+        for (var stmt : statements) {
+            collected.add(stmt);
+            switch (stmt) {
+                case Ast.Stmt.Def def -> collect(def.body(), collected);
+                case Ast.Stmt.If branch -> {
+                    collect(branch.thenBody(), collected);
+                    collect(branch.elseBody(), collected);
+                }
+                case Ast.Stmt.For loop -> collect(loop.body(), collected);
+                default -> {}
+            }
+        }
+    }
+
+    /**
+     * Returns the number of statements which are reused from previous,
+     * without counting statements within reused statements.
+     */
+    private static int countReused(List<Ast.Stmt> statements, Set<Ast.Stmt> previous) {
+        var count = 0;
+        for (var stmt : statements) {
+            if (previous.contains(stmt)) {
+                count++;
+                continue;
+            }
+            count += switch (stmt) {
+                case Ast.Stmt.Def def -> countReused(def.body(), previous);
+                case Ast.Stmt.If branch -> countReused(branch.thenBody(), previous) + countReused(branch.elseBody(), previous);
+                case Ast.Stmt.For loop -> countReused(loop.body(), previous);
+                default -> 0;
+            };
+        }
+        return count;
+    }
+
     interface ParserMethod<T extends Ast> {
         T invoke(Parser parser) throws ParseException;
     }
 
     private static void test(String rule, Object input, Object expected) {
         var tokens = switch (input) {
-            case List<?> list -> (List<Token>) list;
+            case List<?> list -> list.stream().map(Token.class::cast).toList();
             case String program -> Assertions.assertDoesNotThrow(() -> new Lexer(program).lex());
             default -> throw new AssertionError(input);
         };
-        Parser parser = new Parser(tokens);
-        switch (expected) {
-            case Ast ast -> {
-                var received = Assertions.assertDoesNotThrow(() -> parser.parse(rule));
-                Assertions.assertEquals(ast, received);
+        //Both modes of the parser must produce the same result.
+        List<ParserMethod<Ast>> methods = List.of(parser -> parser.parse(rule), parser -> parser.parseIterative(rule));
+        for (var method : methods) {
+            Parser parser = new Parser(tokens);
+            switch (expected) {
+                case Ast ast -> {
+                    var received = Assertions.assertDoesNotThrow(() -> method.invoke(parser));
+                    Assertions.assertEquals(ast, received);
+                }
+                case ParseException e -> {
+                    var received = Assertions.assertThrows(ParseException.class, () -> method.invoke(parser));
+                    Assertions.assertEquals(e.getToken(), received.getToken());
+                }
+                default -> throw new AssertionError(input);
             }
-            case ParseException e -> {
-                var received = Assertions.assertThrows(ParseException.class, () -> parser.parse(rule));
-                Assertions.assertEquals(e.getToken(), received.getToken());
-            }
-            default -> throw new AssertionError(input);
         }
     }
 